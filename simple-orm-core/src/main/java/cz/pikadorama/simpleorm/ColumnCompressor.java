@@ -0,0 +1,482 @@
+package cz.pikadorama.simpleorm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.util.Strings;
+
+/**
+ * Transparent compression of the {@link DbColumn#compression()} columns of one table. Values are
+ * compressed in the column values produced by the mapping and decompressed by a cursor wrapper,
+ * so the mappings see the original values.
+ *
+ * Compressed values are stored as BLOBs starting with a header: 4 magic bytes, format version,
+ * format, original length, CRC32 of the original value and dictionary ID (0 without dictionary),
+ * integers are big endian. TEXT values which do not shrink are stored as they are, BLOB values
+ * always get the header so they cannot be mistaken for compressed data. Values written before
+ * the column was compressed are read as they are, a BLOB is taken for a compressed value only
+ * if its whole header is consistent and the decompressed value matches the length and CRC32.
+ */
+final class ColumnCompressor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Not valid UTF-8, text written as a BLOB does not start with it.
+     */
+    private static final byte[] MAGIC = {(byte) 0xC5, (byte) 0x0A, (byte) 0x5A, (byte) 0xF3};
+    private static final byte VERSION = 1;
+    private static final byte FORMAT_STORED = 0;
+    private static final byte FORMAT_DEFLATE = 1;
+    private static final byte FORMAT_DEFLATE_DICTIONARY = 2;
+    private static final int VERSION_OFFSET = 4;
+    private static final int FORMAT_OFFSET = 5;
+    private static final int LENGTH_OFFSET = 6;
+    private static final int CRC_OFFSET = 10;
+    private static final int DICTIONARY_ID_OFFSET = 14;
+    private static final int HEADER_LENGTH = 18;
+
+    /**
+     * Deflate cannot expand data more than about 1032 times, a longer original length in the
+     * header means the value was not written by this class.
+     */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    /**
+     * Deflate window size, a longer dictionary would not be used.
+     */
+    private static final int MAX_DICTIONARY_LENGTH = 32 * 1024;
+    private static final int DICTIONARY_SAMPLE_ROWS = 64;
+
+    private final String tableName;
+    private final CompressionDictionaries dictionaries;
+    private final Map<String, CompressedColumn> columns = new LinkedHashMap<>();
+
+    private ColumnCompressor(String tableName, CompressionDictionaries dictionaries) {
+        this.tableName = tableName;
+        this.dictionaries = dictionaries;
+    }
+
+    /**
+     * @return compressor of the table or null if none of its columns is compressed
+     */
+    static ColumnCompressor create(String tableName, List<DbColumn> dbColumns, CompressionDictionaries dictionaries) {
+        ColumnCompressor compressor = new ColumnCompressor(tableName, dictionaries);
+        for (DbColumn column : dbColumns) {
+            if (column.compression() != DbCompression.NONE) {
+                compressor.columns.put(column.name(), new CompressedColumn(column,
+                        new CompressionStats(tableName, column.name())));
+            }
+        }
+        return compressor.columns.isEmpty() ? null : compressor;
+    }
+
+    /**
+     * @return true if some column of the table uses a dictionary
+     */
+    boolean usesDictionary() {
+        for (CompressedColumn column : columns.values()) {
+            if (column.compression == DbCompression.DEFLATE_DICTIONARY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Collection<CompressionStats> getStats() {
+        List<CompressionStats> stats = new ArrayList<>();
+        for (CompressedColumn column : columns.values()) {
+            stats.add(column.stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Replaces values of the compressed columns by their compressed form.
+     *
+     * @param values values produced by the mapping
+     * @return values to store
+     */
+    Map<String, Object> compress(Map<String, Object> values) {
+        Map<String, Object> result = values;
+        for (CompressedColumn column : columns.values()) {
+            if (!values.containsKey(column.name)) {
+                continue;
+            }
+            Object value = values.get(column.name);
+            byte[] raw;
+            if (value instanceof String) {
+                raw = ((String) value).getBytes(UTF_8);
+            } else if (value instanceof byte[]) {
+                raw = (byte[]) value;
+            } else {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            int dictionaryId = column.compression == DbCompression.DEFLATE_DICTIONARY ? dictionaries.getLatestId(tableName) : 0;
+            byte[] stored = encode(raw, dictionaryId, dictionaryId > 0 ? dictionaries.get(tableName, dictionaryId) : null);
+
+            if (result == values) {
+                result = new LinkedHashMap<>(values);
+            }
+            if (stored[FORMAT_OFFSET] == FORMAT_STORED && value instanceof String) {
+                // not worth it, keep the plain text
+                column.stats.recordCompression(raw.length, raw.length, System.nanoTime() - start);
+                continue;
+            }
+            result.put(column.name, stored);
+            column.stats.recordCompression(raw.length, stored.length, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Wraps the cursor so the compressed columns are returned decompressed.
+     */
+    BackendCursor wrap(BackendCursor cursor) {
+        return new DecompressingCursor(cursor);
+    }
+
+    /**
+     * Trains a new dictionary from the values of the dictionary columns of the most recent rows.
+     * The sampled values are concatenated, the most recent last, because deflate finds matches
+     * at the end of the dictionary most cheaply.
+     *
+     * @return ID of the new dictionary, 0 if there were no values to train from
+     */
+    int trainDictionary(BackendConnection connection) {
+        List<String> dictionaryColumns = new ArrayList<>();
+        for (CompressedColumn column : columns.values()) {
+            if (column.compression == DbCompression.DEFLATE_DICTIONARY) {
+                dictionaryColumns.add(column.name);
+            }
+        }
+        if (dictionaryColumns.isEmpty()) {
+            return 0;
+        }
+
+        List<byte[]> samples = new ArrayList<>();
+        String sql = String.format("select %s from %s order by %s desc limit %d",
+                Strings.join(dictionaryColumns), tableName, EntitySchema.ID_COLUMN, DICTIONARY_SAMPLE_ROWS);
+        try (BackendCursor cursor = wrap(connection.query(sql))) {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < dictionaryColumns.size(); i++) {
+                    if (!cursor.isNull(i)) {
+                        samples.add(cursor.getBlob(i));
+                    }
+                }
+            }
+        }
+        if (samples.isEmpty()) {
+            return 0;
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(MAX_DICTIONARY_LENGTH);
+        int length = 0;
+        int count = 0;
+        while (count < samples.size() && length + samples.get(count).length <= MAX_DICTIONARY_LENGTH) {
+            length += samples.get(count).length;
+            count++;
+        }
+        // samples are ordered from the newest, write them from the oldest
+        for (int i = count - 1; i >= 0; i--) {
+            dictionary.write(samples.get(i), 0, samples.get(i).length);
+        }
+        if (dictionary.size() == 0) {
+            byte[] newest = samples.get(0);
+            dictionary.write(newest, newest.length - MAX_DICTIONARY_LENGTH, MAX_DICTIONARY_LENGTH);
+        }
+        return dictionaries.store(connection, tableName, dictionary.toByteArray());
+    }
+
+    private static byte[] encode(byte[] raw, int dictionaryId, byte[] dictionary) {
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        int checksum = (int) crc.getValue();
+
+        boolean withDictionary = dictionary != null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + raw.length / 2);
+        writeHeader(out, withDictionary ? FORMAT_DEFLATE_DICTIONARY : FORMAT_DEFLATE, raw.length, checksum,
+                withDictionary ? dictionaryId : 0);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            if (withDictionary) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, Math.min(raw.length, 8192))];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+                if (out.size() >= HEADER_LENGTH + raw.length) {
+                    break;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if (out.size() < HEADER_LENGTH + raw.length) {
+            return out.toByteArray();
+        }
+
+        ByteArrayOutputStream stored = new ByteArrayOutputStream(HEADER_LENGTH + raw.length);
+        writeHeader(stored, FORMAT_STORED, raw.length, checksum, 0);
+        stored.write(raw, 0, raw.length);
+        return stored.toByteArray();
+    }
+
+    /**
+     * @return original value or the stored value itself if it was not written by this class
+     */
+    private byte[] decode(byte[] stored) {
+        byte[] raw = decodeHeader(stored);
+        // written before the column was compressed
+        return raw != null ? raw : stored;
+    }
+
+    /**
+     * @return original value or null if the value has no valid header
+     */
+    private byte[] decodeHeader(byte[] stored) {
+        if (stored.length < HEADER_LENGTH || stored[VERSION_OFFSET] != VERSION) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (stored[i] != MAGIC[i]) {
+                return null;
+            }
+        }
+
+        byte format = stored[FORMAT_OFFSET];
+        int length = getInt(stored, LENGTH_OFFSET);
+        int dictionaryId = getInt(stored, DICTIONARY_ID_OFFSET);
+        int payloadLength = stored.length - HEADER_LENGTH;
+        byte[] raw;
+        if (format == FORMAT_STORED) {
+            if (dictionaryId != 0 || length != payloadLength) {
+                return null;
+            }
+            raw = new byte[length];
+            System.arraycopy(stored, HEADER_LENGTH, raw, 0, length);
+        } else if (format == FORMAT_DEFLATE || format == FORMAT_DEFLATE_DICTIONARY) {
+            if ((format == FORMAT_DEFLATE) != (dictionaryId == 0) || dictionaryId < 0
+                    || length < 0 || length > (long) payloadLength * MAX_DEFLATE_RATIO) {
+                return null;
+            }
+            raw = inflate(stored, length, dictionaryId);
+            if (raw == null) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        return (int) crc.getValue() == getInt(stored, CRC_OFFSET) ? raw : null;
+    }
+
+    /**
+     * @return inflated payload or null if it is not a deflate stream of the given length
+     */
+    private byte[] inflate(byte[] stored, int length, int dictionaryId) {
+        byte[] raw = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH);
+            int position = 0;
+            while (!inflater.finished()) {
+                int inflated;
+                if (position < length) {
+                    inflated = inflater.inflate(raw, position, length - position);
+                } else if (inflater.inflate(new byte[1]) > 0) {
+                    // longer than the header says
+                    return null;
+                } else {
+                    inflated = 0;
+                }
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    if (dictionaryId == 0) {
+                        return null;
+                    }
+                    byte[] dictionary = dictionaries.get(tableName, dictionaryId);
+                    if (dictionary == null) {
+                        throw new IllegalStateException(String.format("Missing compression dictionary %d of table %s.", dictionaryId, tableName));
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (inflated == 0 && inflater.needsInput()) {
+                    return null;
+                }
+                position += inflated;
+            }
+            return position == length && inflater.getRemaining() == 0 ? raw : null;
+        } catch (DataFormatException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // dictionary does not match the stream
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeHeader(ByteArrayOutputStream out, byte format, int length, int checksum, int dictionaryId) {
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        out.write(format);
+        writeInt(out, length);
+        writeInt(out, checksum);
+        writeInt(out, dictionaryId);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static final class CompressedColumn {
+
+        private final String name;
+        private final boolean text;
+        private final DbCompression compression;
+        private final CompressionStats stats;
+
+        private CompressedColumn(DbColumn column, CompressionStats stats) {
+            this.name = column.name();
+            this.text = column.type() == DbDataType.TEXT;
+            this.compression = column.compression();
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Decompresses values of the compressed columns on access. Indexes of the compressed columns
+     * are resolved once for the cursor.
+     */
+    private final class DecompressingCursor implements BackendCursor {
+
+        private final BackendCursor cursor;
+        private final CompressedColumn[] columnsByIndex;
+
+        private DecompressingCursor(BackendCursor cursor) {
+            this.cursor = cursor;
+            this.columnsByIndex = new CompressedColumn[cursor.getColumnCount()];
+            for (CompressedColumn column : columns.values()) {
+                int index = cursor.getColumnIndex(column.name);
+                if (index != -1) {
+                    columnsByIndex[index] = column;
+                }
+            }
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return cursor.moveToNext();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return cursor.getColumnCount();
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            return cursor.getColumnIndex(columnName);
+        }
+
+        @Override
+        public String getColumnName(int columnIndex) {
+            return cursor.getColumnName(columnIndex);
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            CompressedColumn column = columnsByIndex[columnIndex];
+            int type = cursor.getType(columnIndex);
+            if (column != null && column.text && type == TYPE_BLOB) {
+                return TYPE_STRING;
+            }
+            return type;
+        }
+
+        @Override
+        public boolean isNull(int columnIndex) {
+            return cursor.isNull(columnIndex);
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            return cursor.getLong(columnIndex);
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            return cursor.getInt(columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            return cursor.getDouble(columnIndex);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            CompressedColumn column = columnsByIndex[columnIndex];
+            if (column == null || cursor.getType(columnIndex) != TYPE_BLOB) {
+                return cursor.getString(columnIndex);
+            }
+            return new String(getDecompressed(column, columnIndex), UTF_8);
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            CompressedColumn column = columnsByIndex[columnIndex];
+            if (column == null) {
+                return cursor.getBlob(columnIndex);
+            }
+            if (cursor.getType(columnIndex) == TYPE_STRING) {
+                return cursor.getString(columnIndex).getBytes(UTF_8);
+            }
+            return getDecompressed(column, columnIndex);
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+
+        private byte[] getDecompressed(CompressedColumn column, int columnIndex) {
+            byte[] stored = cursor.getBlob(columnIndex);
+            if (stored == null) {
+                return null;
+            }
+            long start = System.nanoTime();
+            byte[] raw = decode(stored);
+            column.stats.recordDecompression(System.nanoTime() - start);
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+
+/**
+ * Compression dictionaries of the tables of one {@link EntityStore}, persisted in the
+ * {@value #DICTIONARIES_TABLE} table. Dictionaries are never deleted, values compressed with
+ * an older dictionary stay readable after a new one is trained.
+ */
+final class CompressionDictionaries {
+
+    static final String DICTIONARIES_TABLE = "simple_orm_dictionaries";
+
+    private static final String COLUMN_TABLE_NAME = "table_name";
+    private static final String COLUMN_DICTIONARY_ID = "dictionary_id";
+    private static final String COLUMN_DICTIONARY = "dictionary";
+
+    private final Map<String, Map<Integer, byte[]>> dictionaries = new HashMap<>();
+    private final Map<String, Integer> latestIds = new HashMap<>();
+
+    /**
+     * Creates the dictionaries table if needed and loads all dictionaries.
+     */
+    synchronized void load(BackendConnection connection) {
+        connection.execute(String.format("create table if not exists %s (%s text not null, %s integer not null, %s blob not null, primary key (%s, %s));",
+                DICTIONARIES_TABLE, COLUMN_TABLE_NAME, COLUMN_DICTIONARY_ID, COLUMN_DICTIONARY, COLUMN_TABLE_NAME, COLUMN_DICTIONARY_ID));
+
+        try (BackendCursor cursor = connection.query(String.format("select %s, %s, %s from %s order by %s;",
+                COLUMN_TABLE_NAME, COLUMN_DICTIONARY_ID, COLUMN_DICTIONARY, DICTIONARIES_TABLE, COLUMN_DICTIONARY_ID))) {
+            while (cursor.moveToNext()) {
+                put(cursor.getString(0), cursor.getInt(1), cursor.getBlob(2));
+            }
+        }
+    }
+
+    /**
+     * @return ID of the newest dictionary of the table, 0 if there is none
+     */
+    synchronized int getLatestId(String tableName) {
+        Integer id = latestIds.get(tableName);
+        return id != null ? id : 0;
+    }
+
+    /**
+     * @return dictionary or null if there is no such dictionary
+     */
+    synchronized byte[] get(String tableName, int id) {
+        Map<Integer, byte[]> tableDictionaries = dictionaries.get(tableName);
+        return tableDictionaries != null ? tableDictionaries.get(id) : null;
+    }
+
+    /**
+     * Stores a new dictionary of the table, it is used for all values written from now on.
+     *
+     * @return ID of the new dictionary
+     */
+    synchronized int store(BackendConnection connection, String tableName, byte[] dictionary) {
+        int id = getLatestId(tableName) + 1;
+        connection.execute(String.format("insert into %s (%s, %s, %s) values (?, ?, ?);",
+                DICTIONARIES_TABLE, COLUMN_TABLE_NAME, COLUMN_DICTIONARY_ID, COLUMN_DICTIONARY), tableName, id, dictionary);
+        put(tableName, id, dictionary);
+        return id;
+    }
+
+    private void put(String tableName, int id, byte[] dictionary) {
+        Map<Integer, byte[]> tableDictionaries = dictionaries.get(tableName);
+        if (tableDictionaries == null) {
+            tableDictionaries = new HashMap<>();
+            dictionaries.put(tableName, tableDictionaries);
+        }
+        tableDictionaries.put(id, dictionary);
+        if (id > getLatestId(tableName)) {
+            latestIds.put(tableName, id);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compression statistics of one column, see {@link EntityStore#getCompressionStats()}. Counted
+ * since the database was opened.
+ */
+public final class CompressionStats {
+
+    private final String tableName;
+    private final String columnName;
+    private final AtomicLong compressedValues = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressedValues = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    CompressionStats(String tableName, String columnName) {
+        this.tableName = tableName;
+        this.columnName = columnName;
+    }
+
+    void recordCompression(long raw, long stored, long nanos) {
+        compressedValues.incrementAndGet();
+        rawBytes.addAndGet(raw);
+        storedBytes.addAndGet(stored);
+        compressNanos.addAndGet(nanos);
+    }
+
+    void recordDecompression(long nanos) {
+        decompressedValues.incrementAndGet();
+        decompressNanos.addAndGet(nanos);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * @return number of written values
+     */
+    public long getCompressedValues() {
+        return compressedValues.get();
+    }
+
+    /**
+     * @return size of the written values before compression
+     */
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    /**
+     * @return size of the written values as stored in the database
+     */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    /**
+     * @return raw size divided by stored size, 1 if nothing was written yet
+     */
+    public double getCompressionRatio() {
+        long stored = storedBytes.get();
+        return stored == 0 ? 1 : (double) rawBytes.get() / stored;
+    }
+
+    /**
+     * @return total time spent compressing in milliseconds
+     */
+    public long getCompressMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compressNanos.get());
+    }
+
+    /**
+     * @return number of read values
+     */
+    public long getDecompressedValues() {
+        return decompressedValues.get();
+    }
+
+    /**
+     * @return total time spent decompressing in milliseconds
+     */
+    public long getDecompressMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(decompressNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s.%s: ratio=%.2f (%d -> %d bytes), compress=%d ms (%d values), decompress=%d ms (%d values)",
+                tableName, columnName, getCompressionRatio(), getRawBytes(), getStoredBytes(),
+                getCompressMillis(), getCompressedValues(), getDecompressMillis(), getDecompressedValues());
+    }
+}
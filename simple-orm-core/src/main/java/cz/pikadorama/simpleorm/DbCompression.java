@@ -0,0 +1,27 @@
+package cz.pikadorama.simpleorm;
+
+/**
+ * Compression of {@link DbDataType#TEXT} and {@link DbDataType#BLOB} column values, see
+ * {@link cz.pikadorama.simpleorm.annotation.DbColumn#compression()}.
+ */
+public enum DbCompression {
+
+    /**
+     * Values are stored as they are.
+     */
+    NONE,
+
+    /**
+     * Values are compressed by deflate at its fastest level.
+     */
+    DEFLATE,
+
+    /**
+     * Values are compressed by deflate with a dictionary shared by the table, which helps a lot
+     * for many small similar values (e.g. JSON documents of the same structure). The dictionary
+     * is trained by {@link EntityStore#trainCompressionDictionary(Class)}, until then the values
+     * are compressed without it.
+     */
+    DEFLATE_DICTIONARY;
+
+}
@@ -0,0 +1,537 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.backend.BackendStatement;
+import cz.pikadorama.simpleorm.backend.StorageBackend;
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.dao.EntityBinding;
+import cz.pikadorama.simpleorm.dao.EntityMapper;
+import cz.pikadorama.simpleorm.dao.RowVisitor;
+import cz.pikadorama.simpleorm.util.Strings;
+
+/**
+ * Default {@link Dao} implementation working with the tables of one {@link EntityStore} through
+ * its {@link StorageBackend}. Mapping between the entity and cursor is done by the
+ * {@link EntityBinding} of the mapping set in {@link DbTable}.
+ *
+ * Objects read without some columns (lazy columns, projections) are remembered, so
+ * {@link #update(Object)} leaves the stored values of those columns alone until they are
+ * loaded by {@link #loadLazyColumns(List, String...)}.
+ */
+final class DefaultDao<T> implements Dao<T> {
+
+    /**
+     * Default SQLITE_MAX_VARIABLE_NUMBER, larger ID lists are queried in chunks.
+     */
+    private static final int MAX_SQL_VARIABLES = 999;
+
+    private final StorageBackend backend;
+    private final Class<T> entityClass;
+    private final String tableName;
+    private final EntityBinding<T> binding;
+    private final ColumnCompressor compressor;
+    private final QueryInspector inspector;
+    private final List<String> allColumnNames;
+    private final Set<String> columnNames;
+    private final String[] lazyColumnNames;
+    private final UnloadedColumns unloadedColumns = new UnloadedColumns();
+    private final String selectSql;
+    private final String selectByIdSql;
+    private final String deleteByIdSql;
+
+    /**
+     * @param backend     storage backend of the store
+     * @param entityClass entity class
+     * @param binding     mapping of the entity
+     * @param compressor  compressor of the table or null
+     * @param inspector   query inspector or null
+     * @throws IllegalArgumentException if the entity has lazy columns and its mapping cannot
+     *                                  read rows without them
+     */
+    DefaultDao(StorageBackend backend, Class<T> entityClass, EntityBinding<T> binding,
+               ColumnCompressor compressor, QueryInspector inspector) {
+        this.backend = backend;
+        this.entityClass = entityClass;
+        this.binding = binding;
+        this.tableName = entityClass.getAnnotation(DbTable.class).name();
+        this.compressor = compressor;
+        this.inspector = inspector;
+
+        this.allColumnNames = EntitySchema.getColumnNames(entityClass);
+        List<String> eagerColumnNames = new ArrayList<>();
+        List<String> lazyColumnNames = new ArrayList<>();
+        for (DbColumn column : EntitySchema.getDbColumns(entityClass)) {
+            if (column.lazy()) {
+                lazyColumnNames.add(column.name());
+            } else {
+                eagerColumnNames.add(column.name());
+            }
+        }
+        this.columnNames = new HashSet<>(allColumnNames);
+        this.lazyColumnNames = lazyColumnNames.toArray(new String[lazyColumnNames.size()]);
+
+        // bulk reads skip lazy columns, single object reads get everything
+        this.selectSql = String.format("select %s from %s", Strings.join(eagerColumnNames), tableName);
+        this.selectByIdSql = String.format("select %s from %s where %s = ?",
+                Strings.join(allColumnNames), tableName, EntitySchema.ID_COLUMN);
+        this.deleteByIdSql = String.format("delete from %s where %s = ?", tableName, EntitySchema.ID_COLUMN);
+
+        if (this.lazyColumnNames.length > 0) {
+            checkPartialRows();
+        }
+    }
+
+    @Override
+    public T getById(long id) {
+        return queryById(selectByIdSql, id);
+    }
+
+    @Override
+    public T getById(long id, String[] columns) {
+        return queryById(String.format("%s where %s = ?", composeSelectSql(columns), EntitySchema.ID_COLUMN), id);
+    }
+
+    @Override
+    public List<T> getByIds(long[] ids) {
+        return queryByIds(selectSql, ids);
+    }
+
+    @Override
+    public List<T> getByIds(long[] ids, String[] columns) {
+        return queryByIds(composeSelectSql(columns), ids);
+    }
+
+    @Override
+    public void loadLazyColumns(List<T> objects, String... columns) {
+        if (!binding.readsIntoObjects()) {
+            throw new IllegalStateException("Loading columns of table " + tableName +
+                    " requires a mapping which reads into existing objects (EntityMapper or IndexedDaoQueryHelper).");
+        }
+        String[] columnsToLoad = columns.length > 0 ? columns : lazyColumnNames;
+        if (objects.isEmpty() || columnsToLoad.length == 0) {
+            return;
+        }
+
+        long[] ids = new long[objects.size()];
+        LongMap<T> objectsById = new LongMap<>(objects.size());
+        for (int i = 0; i < ids.length; i++) {
+            T obj = objects.get(i);
+            ids[i] = binding.getId(obj);
+            objectsById.put(ids[i], obj);
+        }
+
+        String select = composeSelectSql(columnsToLoad);
+        List<String> loadedColumns = Arrays.asList(columnsToLoad);
+        BackendConnection connection = backend.acquireConnection(false);
+        try {
+            for (int offset = 0; offset < ids.length; offset += MAX_SQL_VARIABLES) {
+                int length = Math.min(MAX_SQL_VARIABLES, ids.length - offset);
+                try (BackendCursor cursor = queryIdChunk(connection, select, ids, offset, length)) {
+                    int idIndex = cursor.getColumnIndex(EntitySchema.ID_COLUMN);
+                    // checked by readsIntoObjects() above
+                    EntityBinding.TargetReader<T> reader = (EntityBinding.TargetReader<T>) binding.newReader(cursor);
+                    while (cursor.moveToNext()) {
+                        T target = objectsById.get(cursor.getLong(idIndex));
+                        if (target != null) {
+                            reader.read(target);
+                            unloadedColumns.markLoaded(target, loadedColumns);
+                        }
+                    }
+                }
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public long create(T obj) {
+        long id;
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.beginTransaction();
+            try {
+                Map<String, Object> values = compress(binding.toValues(obj));
+                try (BackendStatement statement = connection.compileStatement(composeInsertSql(values))) {
+                    bindValues(statement, values);
+                    id = statement.executeInsert();
+                }
+                binding.setId(obj, id);
+                connection.setTransactionSuccessful();
+            } finally {
+                connection.endTransaction();
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+        return id;
+    }
+
+    /**
+     * Objects with ID are inserted in batches of one statement. Objects without ID are inserted
+     * one by one, so each gets the row ID generated for its own row.
+     */
+    @Override
+    public void createAll(List<T> objects) {
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.beginTransaction();
+            try {
+                String statementSql = null;
+                BackendStatement statement = null;
+                boolean batched = false;
+                try {
+                    for (T obj : objects) {
+                        Map<String, Object> values = compress(binding.toValues(obj));
+                        String sql = composeInsertSql(values);
+                        if (statement != null && !sql.equals(statementSql)) {
+                            if (batched) {
+                                statement.executeBatch();
+                                batched = false;
+                            }
+                            statement.close();
+                            statement = null;
+                        }
+                        if (statement == null) {
+                            statement = connection.compileStatement(sql);
+                            statementSql = sql;
+                        }
+
+                        bindValues(statement, values);
+                        if (binding.getId(obj) != EntityMapper.NO_ID) {
+                            statement.addBatch();
+                            batched = true;
+                        } else {
+                            // rows batched before must get their IDs first
+                            if (batched) {
+                                statement.executeBatch();
+                                batched = false;
+                                bindValues(statement, values);
+                            }
+                            binding.setId(obj, statement.executeInsert());
+                        }
+                    }
+                    if (batched) {
+                        statement.executeBatch();
+                    }
+                } finally {
+                    if (statement != null) {
+                        statement.close();
+                    }
+                }
+                connection.setTransactionSuccessful();
+            } finally {
+                connection.endTransaction();
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Columns which were not read into the object are not written.
+     */
+    @Override
+    public void update(T obj) {
+        Map<String, Object> values = binding.toValues(obj);
+        Set<String> unloaded = unloadedColumns.get(obj);
+        if (unloaded != null) {
+            values = new LinkedHashMap<>(values);
+            values.keySet().removeAll(unloaded);
+        }
+        if (values.isEmpty()) {
+            // there is no column to write
+            return;
+        }
+        values = compress(values);
+        List<String> assignments = new ArrayList<>(values.size());
+        for (String column : values.keySet()) {
+            assignments.add(column + " = ?");
+        }
+
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.beginTransaction();
+            try {
+                try (BackendStatement statement = connection.compileStatement(String.format("update %s set %s where %s = ?",
+                        tableName, Strings.join(assignments), EntitySchema.ID_COLUMN))) {
+                    bindValues(statement, values);
+                    statement.bindLong(values.size() + 1, binding.getId(obj));
+                    statement.executeUpdateDelete();
+                }
+                connection.setTransactionSuccessful();
+            } finally {
+                connection.endTransaction();
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public void delete(T obj) {
+        delete(binding.getId(obj));
+    }
+
+    @Override
+    public void delete(long id) {
+        BackendConnection connection = backend.acquireConnection(true);
+        try (BackendStatement statement = connection.compileStatement(deleteByIdSql)) {
+            statement.bindLong(1, id);
+            statement.executeUpdateDelete();
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.execute("delete from " + tableName);
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public List<T> findAll() {
+        return query(selectSql, null);
+    }
+
+    @Override
+    public List<T> findAll(String[] columns) {
+        return query(composeSelectSql(columns), null);
+    }
+
+    @Override
+    public List<T> query(String query, String[] columnNames) {
+        BackendConnection connection = backend.acquireConnection(false);
+        try {
+            inspect(connection, query);
+            try (BackendCursor cursor = wrap(connection.query(query, toArgs(columnNames)))) {
+                List<T> list = new ArrayList<>();
+                readObjects(cursor, list);
+                return list;
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public int scanAll(T target, RowVisitor<T> visitor) {
+        return scan(selectSql, null, target, visitor);
+    }
+
+    @Override
+    public int scan(String query, String[] selectionArgs, T target, RowVisitor<T> visitor) {
+        BackendConnection connection = backend.acquireConnection(false);
+        try {
+            inspect(connection, query);
+            try (BackendCursor cursor = wrap(connection.query(query, toArgs(selectionArgs)))) {
+                int count = 0;
+                EntityBinding.Reader<T> reader = binding.newReader(cursor);
+                EntityBinding.TargetReader<T> targetReader = reader instanceof EntityBinding.TargetReader
+                        ? (EntityBinding.TargetReader<T>) reader : null;
+                if (targetReader != null) {
+                    // once per scan, all rows have the same columns
+                    Set<String> unloaded = getUnloadedColumns(cursor);
+                    if (unloaded != null) {
+                        unloadedColumns.put(target, unloaded);
+                    } else {
+                        unloadedColumns.remove(target);
+                    }
+                }
+                while (cursor.moveToNext()) {
+                    count++;
+                    T row;
+                    if (targetReader != null) {
+                        targetReader.read(target);
+                        row = target;
+                    } else {
+                        // rows handed to the visitor are not tracked, scans stay allocation free
+                        row = reader.read();
+                    }
+                    if (!visitor.visit(row)) {
+                        break;
+                    }
+                }
+                return count;
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Compiles the statements of this DAO, so they are in the prepared statement cache of the
+     * connection when they are executed for the first time.
+     */
+    void compileStatements() {
+        BackendConnection connection = backend.acquireConnection(false);
+        try {
+            for (String sql : new String[]{selectSql, selectByIdSql}) {
+                connection.compileStatement(sql).close();
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+        connection = backend.acquireConnection(true);
+        try {
+            connection.compileStatement(deleteByIdSql).close();
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    private T queryById(String sql, long id) {
+        BackendConnection connection = backend.acquireConnection(false);
+        try (BackendCursor cursor = wrap(connection.queryLongArgs(sql, new long[]{id}, 0, 1))) {
+            if (cursor.moveToNext()) {
+                T obj = binding.newReader(cursor).read();
+                Set<String> unloaded = getUnloadedColumns(cursor);
+                if (unloaded != null) {
+                    unloadedColumns.put(obj, unloaded);
+                }
+                return obj;
+            }
+            throw new IllegalStateException(String.format("No record found in table=%s for ID=%s.", tableName, id));
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    private List<T> queryByIds(String select, long[] ids) {
+        List<T> list = new ArrayList<>(ids.length);
+        BackendConnection connection = backend.acquireConnection(false);
+        try {
+            for (int offset = 0; offset < ids.length; offset += MAX_SQL_VARIABLES) {
+                int length = Math.min(MAX_SQL_VARIABLES, ids.length - offset);
+                try (BackendCursor cursor = queryIdChunk(connection, select, ids, offset, length)) {
+                    readObjects(cursor, list);
+                }
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+        return list;
+    }
+
+    private BackendCursor queryIdChunk(BackendConnection connection, String select, long[] ids, int offset, int length) {
+        String sql = String.format("%s where %s in %s", select, EntitySchema.ID_COLUMN, Strings.makeSqlPlaceholders(length));
+        inspect(connection, sql);
+        return wrap(connection.queryLongArgs(sql, ids, offset, length));
+    }
+
+    private Map<String, Object> compress(Map<String, Object> values) {
+        return compressor != null ? compressor.compress(values) : values;
+    }
+
+    private BackendCursor wrap(BackendCursor cursor) {
+        return compressor != null ? compressor.wrap(cursor) : cursor;
+    }
+
+    private void inspect(BackendConnection connection, String sql) {
+        if (inspector != null) {
+            inspector.inspect(connection, sql, entityClass, tableName);
+        }
+    }
+
+    private String composeInsertSql(Map<String, Object> values) {
+        return String.format("insert into %s (%s) values %s", tableName,
+                Strings.join(new ArrayList<>(values.keySet())), Strings.makeSqlPlaceholders(values.size()));
+    }
+
+    /**
+     * Composes select of the given columns, always including the ID column.
+     *
+     * @throws IllegalArgumentException if a column is not mapped by the entity
+     */
+    private String composeSelectSql(String[] columns) {
+        List<String> selectedColumns = new ArrayList<>(columns.length + 1);
+        selectedColumns.add(EntitySchema.ID_COLUMN);
+        for (String column : columns) {
+            if (!columnNames.contains(column)) {
+                throw new IllegalArgumentException(String.format("There is no column %s in table %s.", column, tableName));
+            }
+            if (!selectedColumns.contains(column)) {
+                selectedColumns.add(column);
+            }
+        }
+        return String.format("select %s from %s", Strings.join(selectedColumns), tableName);
+    }
+
+    private void readObjects(BackendCursor cursor, List<T> list) {
+        EntityBinding.Reader<T> reader = binding.newReader(cursor);
+        Set<String> unloaded = getUnloadedColumns(cursor);
+        while (cursor.moveToNext()) {
+            T obj = reader.read();
+            if (unloaded != null) {
+                unloadedColumns.put(obj, unloaded);
+            }
+            list.add(obj);
+        }
+    }
+
+    /**
+     * @return mapped columns missing in the cursor or null if it has all of them
+     */
+    private Set<String> getUnloadedColumns(BackendCursor cursor) {
+        Set<String> unloaded = null;
+        for (String column : allColumnNames) {
+            if (cursor.getColumnIndex(column) == -1) {
+                if (unloaded == null) {
+                    unloaded = new HashSet<>();
+                }
+                unloaded.add(column);
+            }
+        }
+        return unloaded != null ? Collections.unmodifiableSet(unloaded) : null;
+    }
+
+    /**
+     * Bulk reads skip the lazy columns, so the mapping has to read rows into existing objects
+     * and resolve the column indexes of a cursor without them. Checked on an empty result.
+     */
+    private void checkPartialRows() {
+        if (!binding.readsIntoObjects()) {
+            throw new IllegalArgumentException(String.format("Table %s has lazy columns, its mapping must read rows " +
+                    "into existing objects (EntityMapper or IndexedDaoQueryHelper).", tableName));
+        }
+        BackendConnection connection = backend.acquireConnection(false);
+        try (BackendCursor cursor = wrap(connection.query(selectSql + " limit 0"))) {
+            try {
+                binding.newReader(cursor);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(String.format("Mapping of table %s must tolerate the lazy columns " +
+                        "missing in the cursor, resolve their indexes by getColumnIndex.", tableName), e);
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    private static void bindValues(BackendStatement statement, Map<String, Object> values) {
+        int index = 1;
+        for (Object value : values.values()) {
+            statement.bind(index++, value);
+        }
+    }
+
+    private static Object[] toArgs(String[] args) {
+        return args != null ? args : new Object[0];
+    }
+}
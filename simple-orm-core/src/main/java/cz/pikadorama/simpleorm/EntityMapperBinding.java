@@ -0,0 +1,57 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.dao.EntityBinding;
+import cz.pikadorama.simpleorm.dao.EntityMapper;
+
+/**
+ * {@link EntityBinding} of an {@link EntityMapper} entity.
+ */
+final class EntityMapperBinding<T> implements EntityBinding<T> {
+
+    private final EntityMapper<T> mapper;
+
+    EntityMapperBinding(EntityMapper<T> mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public Reader<T> newReader(final BackendCursor cursor) {
+        final int[] columnIndexes = mapper.getColumnIndexes(cursor);
+        return new TargetReader<T>() {
+            @Override
+            public T read() {
+                T obj = mapper.newObject();
+                mapper.readRow(cursor, columnIndexes, obj);
+                return obj;
+            }
+
+            @Override
+            public void read(T target) {
+                mapper.readRow(cursor, columnIndexes, target);
+            }
+        };
+    }
+
+    @Override
+    public boolean readsIntoObjects() {
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> toValues(T obj) {
+        return mapper.toValues(obj);
+    }
+
+    @Override
+    public long getId(T obj) {
+        return mapper.getId(obj);
+    }
+
+    @Override
+    public void setId(T obj, long id) {
+        mapper.setId(obj, id);
+    }
+}
@@ -0,0 +1,97 @@
+package cz.pikadorama.simpleorm;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.annotation.DbTable;
+
+/**
+ * Table structure described by the {@link DbTable} and {@link DbColumn} annotations of an
+ * entity class, shared by {@link EntityStore} and the Android {@code Database}.
+ */
+public final class EntitySchema {
+
+    /**
+     * Name of the mandatory ID column, the same as {@code android.provider.BaseColumns._ID}.
+     */
+    public static final String ID_COLUMN = "_id";
+
+    private EntitySchema() {
+    }
+
+    /**
+     * @return create table statement of the entity columns
+     */
+    public static String composeCreateTableSql(String tableName, Class<?> clazz) {
+        String sqlStart = String.format("create table %s (", tableName);
+        String sqlEnd = ");";
+
+        String sqlMiddle = "";
+        for (DbColumn column : getDbColumns(clazz)) {
+            sqlMiddle += String
+                    .format("%s %s %s, ", column.name(), column.type(), column.properties());
+        }
+
+        // remove the last comma
+        StringBuilder builder = new StringBuilder(sqlMiddle);
+        builder.replace(sqlMiddle.lastIndexOf(","), sqlMiddle.lastIndexOf(",") + 1, "");
+        sqlMiddle = builder.toString();
+
+        return sqlStart + sqlMiddle + sqlEnd;
+    }
+
+    public static List<String> getColumnNames(Class<?> clazz) {
+        List<DbColumn> columns = getDbColumns(clazz);
+        List<String> columnNames = new ArrayList<>();
+        for (DbColumn column : columns) {
+            columnNames.add(column.name());
+        }
+        return columnNames;
+    }
+
+    public static List<DbColumn> getDbColumns(Class<?> clazz) {
+        List<DbColumn> columns = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            DbColumn dbColumnAnnotation = field.getAnnotation(DbColumn.class);
+            if (dbColumnAnnotation != null) {
+                columns.add(dbColumnAnnotation);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the annotations of the entity are not valid
+     */
+    public static void validateEntityClass(Class<?> clazz) {
+        DbTable classAnnotation = clazz.getAnnotation(DbTable.class);
+        if (classAnnotation == null) {
+            throw new IllegalArgumentException(clazz + " does not have @DbTable annotation.");
+        }
+
+        boolean baseColumnId = false;
+        for (Field field : clazz.getDeclaredFields()) {
+            DbColumn column = field.getAnnotation(DbColumn.class);
+            if (column != null && ID_COLUMN.equals(column.name()) &&
+                    DbDataType.INTEGER == column.type()) {
+                baseColumnId = true;
+            }
+            if (column != null && column.compression() != DbCompression.NONE &&
+                    column.type() != DbDataType.TEXT && column.type() != DbDataType.BLOB) {
+                throw new IllegalArgumentException(clazz + " column " + column.name() +
+                        " cannot be compressed, only TEXT and BLOB columns can.");
+            }
+            if (column != null && column.mirrorIndex() &&
+                    (!classAnnotation.mirrored() || column.type() == DbDataType.BLOB)) {
+                throw new IllegalArgumentException(clazz + " column " + column.name() +
+                        " cannot be indexed in memory, only non-BLOB columns of mirrored tables can.");
+            }
+        }
+        if (!baseColumnId) {
+            throw new IllegalArgumentException(clazz +
+                    " does not have mandatory BaseColumn._ID field of DbDataType.INTEGER defined by @DbColumn annotation.");
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.backend.StorageBackend;
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.dao.EntityBinding;
+import cz.pikadorama.simpleorm.dao.EntityMapper;
+
+/**
+ * Entities of one database accessed through a {@link StorageBackend}: their DAOs, in-memory
+ * mirrors and column compression. Create it by {@link Builder} or
+ * {@link #open(StorageBackend, Class[])}. It runs on the JVM, e.g. over
+ * {@link cz.pikadorama.simpleorm.backend.JdbcStorageBackend}, and the Android {@code Database}
+ * runs its DAOs by a store as well.
+ *
+ * Missing tables are created when the store is opened. Changes of existing tables, warmup,
+ * maintenance and read transactions are features of the Android {@code Database}.
+ */
+public final class EntityStore {
+
+    private final StorageBackend backend;
+    private final EntityBinding.Factory bindingFactory;
+    private final QueryInspector queryInspector;
+    private final Map<Class<?>, EntityBinding<?>> bindings = new LinkedHashMap<>();
+    private final Map<Class<?>, Dao<?>> daos = new HashMap<>();
+    private final Map<Class<?>, DefaultDao<?>> defaultDaos = new LinkedHashMap<>();
+    private final Map<Class<?>, TableMirror<?>> mirrors = new HashMap<>();
+    private final CompressionDictionaries compressionDictionaries = new CompressionDictionaries();
+    private final Map<String, ColumnCompressor> compressors = new LinkedHashMap<>();
+
+    private EntityStore(Builder builder) {
+        this.backend = builder.backend;
+        this.bindingFactory = builder.bindingFactory;
+        this.queryInspector = builder.queryInspector;
+    }
+
+    /**
+     * Opens store of the given entities and creates their missing tables.
+     *
+     * @param backend       storage backend
+     * @param entityClasses entity classes mapped by {@link EntityMapper}
+     * @return store instance
+     */
+    public static EntityStore open(StorageBackend backend, Class<?>... entityClasses) throws
+            InstantiationException, IllegalAccessException {
+        return new Builder(backend).entities(entityClasses).build();
+    }
+
+    /**
+     * @return storage backend of this store
+     */
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Register DAO for the given DAO type. Overrides any DAO of the same type registered before.
+     *
+     * @param daoType DAO type
+     * @param dao     DAO implementation
+     */
+    public synchronized void registerDao(Class<?> daoType, Dao<?> dao) {
+        daos.put(daoType, dao);
+    }
+
+    /**
+     * Get DAO implementation for the given DAO type. The default implementation is created on
+     * the first call unless other DAO was registered by {@link #registerDao(Class, Dao)}. The
+     * default DAO of a {@link DbTable#mirrored()} table loads the table into its
+     * {@link TableMirror} when it is created.
+     *
+     * @param daoType DAO type
+     * @return DAO implementation
+     * @throws IllegalArgumentException if the type is not an entity of this store
+     */
+    public synchronized <T> Dao<T> getDao(Class<T> daoType) {
+        if (daos.containsKey(daoType)) {
+            return (Dao<T>) daos.get(daoType);
+        }
+
+        EntityBinding<T> binding = getBinding(daoType);
+        DbTable table = daoType.getAnnotation(DbTable.class);
+        DefaultDao<T> defaultDao = new DefaultDao<>(backend, daoType, binding, compressors.get(table.name()),
+                queryInspector);
+        defaultDaos.put(daoType, defaultDao);
+        Dao<T> dao = defaultDao;
+        if (table.mirrored()) {
+            TableMirror<T> mirror = new TableMirror<>(daoType, binding, dao, EntitySchema.getColumnNames(daoType));
+            mirror.reload();
+            mirrors.put(daoType, mirror);
+            dao = new MirroredDao<>(backend, dao, mirror, table.name());
+        }
+        registerDao(daoType, dao);
+        return dao;
+    }
+
+    /**
+     * Returns in-memory mirror of a {@link DbTable#mirrored()} table, e.g. to find rows by
+     * the {@link cz.pikadorama.simpleorm.annotation.DbColumn#mirrorIndex()} columns. The
+     * mirror is loaded with the default DAO of the entity.
+     *
+     * @param entityClass entity class
+     * @return mirror of the entity table
+     * @throws IllegalArgumentException if the table is not mirrored
+     */
+    public synchronized <T> TableMirror<T> getMirror(Class<T> entityClass) {
+        if (!mirrors.containsKey(entityClass)) {
+            DbTable table = entityClass.getAnnotation(DbTable.class);
+            if (table == null || !table.mirrored()) {
+                throw new IllegalArgumentException(entityClass + " is not a mirrored table.");
+            }
+            getDao(entityClass);
+        }
+        TableMirror<T> mirror = (TableMirror<T>) mirrors.get(entityClass);
+        if (mirror == null) {
+            throw new IllegalArgumentException("Default DAO of " + entityClass + " was replaced, there is no mirror.");
+        }
+        return mirror;
+    }
+
+    /**
+     * Runs the given writes in a single transaction, they are committed together when the
+     * transaction returns and rolled back together when it throws. Nested calls join the
+     * outer transaction. Mirrors of the written tables are reloaded after the commit.
+     *
+     * @param transaction writes to run
+     * @return result of the transaction
+     */
+    public <R> R writeTransaction(WriteTransaction<R> transaction) {
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.beginTransaction();
+            try {
+                R result = transaction.execute();
+                connection.setTransactionSuccessful();
+                return result;
+            } finally {
+                connection.endTransaction();
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Trains a new compression dictionary for the {@link DbCompression#DEFLATE_DICTIONARY}
+     * columns of the given entity from its most recent rows and stores it in the database.
+     * Values written from now on use the new dictionary, values written before stay readable.
+     * Train it once the table holds representative data and again when the data changes
+     * its shape.
+     *
+     * @param entityClass entity class
+     * @return ID of the new dictionary, 0 if the table has no values to train from
+     * @throws IllegalArgumentException if the entity has no dictionary compressed column
+     */
+    public int trainCompressionDictionary(Class<?> entityClass) {
+        DbTable table = entityClass.getAnnotation(DbTable.class);
+        ColumnCompressor compressor;
+        synchronized (this) {
+            compressor = table != null ? compressors.get(table.name()) : null;
+        }
+        if (compressor == null || !compressor.usesDictionary()) {
+            throw new IllegalArgumentException(entityClass + " has no column compressed with a dictionary.");
+        }
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            return compressor.trainDictionary(connection);
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * @return compression statistics of all compressed columns, by "table.column"
+     */
+    public synchronized Map<String, CompressionStats> getCompressionStats() {
+        Map<String, CompressionStats> stats = new LinkedHashMap<>();
+        for (ColumnCompressor compressor : compressors.values()) {
+            for (CompressionStats columnStats : compressor.getStats()) {
+                stats.put(columnStats.getTableName() + "." + columnStats.getColumnName(), columnStats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return entity classes of this store
+     */
+    public synchronized List<Class<?>> getEntityClasses() {
+        return new ArrayList<>(bindings.keySet());
+    }
+
+    /**
+     * Compiles the statements of the default DAOs created so far, so they are in the prepared
+     * statement cache of the connections when they are executed for the first time.
+     */
+    public void compileStatements() {
+        List<DefaultDao<?>> daosToCompile;
+        synchronized (this) {
+            daosToCompile = new ArrayList<DefaultDao<?>>(defaultDaos.values());
+        }
+        for (DefaultDao<?> dao : daosToCompile) {
+            dao.compileStatements();
+        }
+    }
+
+    /**
+     * Closes the storage backend.
+     */
+    public void close() {
+        backend.close();
+    }
+
+    private synchronized <T> EntityBinding<T> getBinding(Class<T> entityClass) {
+        EntityBinding<T> binding = (EntityBinding<T>) bindings.get(entityClass);
+        if (binding == null) {
+            throw new IllegalArgumentException("There is no Entity Mapping registered for class " + entityClass);
+        }
+        return binding;
+    }
+
+    private synchronized void initStore(List<Class<?>> entityClasses) throws
+            InstantiationException, IllegalAccessException {
+        boolean usesDictionaries = false;
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            for (Class<?> clazz : entityClasses) {
+                EntitySchema.validateEntityClass(clazz);
+                DbTable table = clazz.getAnnotation(DbTable.class);
+                bindings.put(clazz, createBinding(clazz, table.mappingClass().newInstance()));
+
+                ColumnCompressor compressor = ColumnCompressor.create(table.name(),
+                        EntitySchema.getDbColumns(clazz), compressionDictionaries);
+                if (compressor != null) {
+                    compressors.put(table.name(), compressor);
+                    usesDictionaries |= compressor.usesDictionary();
+                }
+
+                if (!tableExists(connection, table.name())) {
+                    connection.execute(EntitySchema.composeCreateTableSql(table.name(), clazz));
+                }
+            }
+            if (usesDictionaries) {
+                compressionDictionaries.load(connection);
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    private <T> EntityBinding<T> createBinding(Class<T> entityClass, Object mapping) {
+        if (mapping instanceof EntityMapper) {
+            return new EntityMapperBinding<>((EntityMapper<T>) mapping);
+        }
+        EntityBinding<T> binding = bindingFactory != null ? bindingFactory.create(entityClass, mapping) : null;
+        if (binding == null) {
+            throw new IllegalArgumentException(mapping.getClass() + " is not a supported mapping, implement EntityMapper.");
+        }
+        return binding;
+    }
+
+    private static boolean tableExists(BackendConnection connection, String tableName) {
+        try (BackendCursor cursor = connection.query("select 1 from sqlite_master where type = 'table' and name = ?;", tableName)) {
+            return cursor.moveToNext();
+        }
+    }
+
+    public static final class Builder {
+
+        private final StorageBackend backend;
+        private final List<Class<?>> entityClasses = new ArrayList<>();
+        private EntityBinding.Factory bindingFactory = null;
+        private QueryInspector queryInspector = null;
+
+        /**
+         * @param backend storage backend of the database
+         */
+        public Builder(StorageBackend backend) {
+            if (backend == null) {
+                throw new IllegalArgumentException("StorageBackend is mandatory.");
+            }
+            this.backend = backend;
+        }
+
+        /**
+         * Adds entity classes to be handled by the store.
+         *
+         * @param classes entity classes annotated with the {@link DbTable} annotation
+         * @return this builder
+         */
+        public Builder entities(Class<?>... classes) {
+            entityClasses.addAll(Arrays.asList(classes));
+            return this;
+        }
+
+        /**
+         * Sets factory of bindings of the mapping classes which are not {@link EntityMapper}.
+         *
+         * @param factory binding factory, null to support {@link EntityMapper} only
+         * @return this builder
+         */
+        public Builder bindingFactory(EntityBinding.Factory factory) {
+            this.bindingFactory = factory;
+            return this;
+        }
+
+        /**
+         * Sets hook called before the default DAOs run a query.
+         *
+         * @param inspector query inspector, null to disable
+         * @return this builder
+         */
+        public Builder queryInspector(QueryInspector inspector) {
+            this.queryInspector = inspector;
+            return this;
+        }
+
+        /**
+         * Opens the store and creates missing tables of its entities.
+         *
+         * @return store instance
+         * @throws IllegalArgumentException if no entity class was added or an entity is not valid
+         */
+        public EntityStore build() throws InstantiationException, IllegalAccessException {
+            if (entityClasses.isEmpty()) {
+                throw new IllegalArgumentException("No Entity classes have been specified.");
+            }
+            EntityStore store = new EntityStore(this);
+            store.initStore(entityClasses);
+            return store;
+        }
+    }
+}
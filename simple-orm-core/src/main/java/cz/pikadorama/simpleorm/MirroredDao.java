@@ -0,0 +1,190 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.StorageBackend;
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.dao.RowVisitor;
+
+/**
+ * {@link Dao} of a {@link cz.pikadorama.simpleorm.annotation.DbTable#mirrored()} table. Reads
+ * by ID and {@code findAll} are served by the {@link TableMirror}, projections, custom queries
+ * and writes go to SQLite through the delegate. Reads return copies of the mirrored objects, as
+ * reads from SQLite return new objects. Rows written by a transaction are reloaded into the
+ * mirror once it commits.
+ */
+final class MirroredDao<T> implements Dao<T> {
+
+    private final StorageBackend backend;
+    private final Dao<T> delegate;
+    private final TableMirror<T> mirror;
+    private final String tableName;
+    // rows written by the transaction of the thread, registered once per transaction
+    private final ThreadLocal<PendingReload> pendingReloads = new ThreadLocal<PendingReload>() {
+        @Override
+        protected PendingReload initialValue() {
+            return new PendingReload();
+        }
+    };
+
+    MirroredDao(StorageBackend backend, Dao<T> delegate, TableMirror<T> mirror, String tableName) {
+        this.backend = backend;
+        this.delegate = delegate;
+        this.mirror = mirror;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public T getById(long id) {
+        T obj = mirror.copyById(id);
+        if (obj == null) {
+            throw new IllegalStateException(String.format("No record found in table=%s for ID=%s.", tableName, id));
+        }
+        return obj;
+    }
+
+    @Override
+    public List<T> getByIds(long[] ids) {
+        return mirror.copyByIds(ids);
+    }
+
+    @Override
+    public T getById(long id, String[] columns) {
+        return delegate.getById(id, columns);
+    }
+
+    @Override
+    public List<T> getByIds(long[] ids, String[] columns) {
+        return delegate.getByIds(ids, columns);
+    }
+
+    @Override
+    public long create(T obj) {
+        long id = delegate.create(obj);
+        reloadAfterCommit(id);
+        return id;
+    }
+
+    @Override
+    public void createAll(List<T> objects) {
+        delegate.createAll(objects);
+        long[] ids = new long[objects.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mirror.getId(objects.get(i));
+        }
+        reloadAfterCommit(ids);
+    }
+
+    @Override
+    public void update(T obj) {
+        delegate.update(obj);
+        reloadAfterCommit(mirror.getId(obj));
+    }
+
+    @Override
+    public void delete(T obj) {
+        delegate.delete(obj);
+        reloadAfterCommit(mirror.getId(obj));
+    }
+
+    @Override
+    public void delete(long id) {
+        delegate.delete(id);
+        reloadAfterCommit(id);
+    }
+
+    @Override
+    public void deleteAll() {
+        delegate.deleteAll();
+        reloadAfterCommit(null);
+    }
+
+    @Override
+    public List<T> findAll() {
+        return mirror.copyAll();
+    }
+
+    @Override
+    public List<T> findAll(String[] columns) {
+        return delegate.findAll(columns);
+    }
+
+    /**
+     * Objects read from the mirror have all columns loaded already, other objects are loaded
+     * from SQLite.
+     */
+    @Override
+    public void loadLazyColumns(List<T> objects, String... columns) {
+        delegate.loadLazyColumns(objects, columns);
+    }
+
+    @Override
+    public List<T> query(String query, String[] columnNames) {
+        return delegate.query(query, columnNames);
+    }
+
+    @Override
+    public int scanAll(T target, RowVisitor<T> visitor) {
+        return mirror.scanCopies(target, visitor);
+    }
+
+    @Override
+    public int scan(String query, String[] selectionArgs, T target, RowVisitor<T> visitor) {
+        return delegate.scan(query, selectionArgs, target, visitor);
+    }
+
+    /**
+     * Reloads the written rows into the mirror right away or once the transaction of the
+     * calling thread commits, a rolled back write leaves the mirror as it was.
+     *
+     * @param ids IDs of the written rows, null to reload the whole table
+     */
+    private void reloadAfterCommit(long... ids) {
+        PendingReload pendingReload = pendingReloads.get();
+        pendingReload.add(ids);
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.runAfterCommit(pendingReload);
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Rows written by the transaction of one thread. IDs of a rolled back transaction stay
+     * until the next commit, reloading them again does no harm.
+     */
+    private final class PendingReload implements Runnable {
+
+        private long[] ids = new long[16];
+        private int size = 0;
+        private boolean wholeTable = false;
+
+        private void add(long[] writtenIds) {
+            if (writtenIds == null) {
+                wholeTable = true;
+                return;
+            }
+            if (size + writtenIds.length > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, size + writtenIds.length));
+            }
+            System.arraycopy(writtenIds, 0, ids, size, writtenIds.length);
+            size += writtenIds.length;
+        }
+
+        @Override
+        public void run() {
+            long[] changedIds = Arrays.copyOf(ids, size);
+            boolean reloadTable = wholeTable;
+            size = 0;
+            wholeTable = false;
+            if (reloadTable) {
+                mirror.reload();
+            } else if (changedIds.length > 0) {
+                mirror.reload(changedIds);
+            }
+        }
+    }
+}
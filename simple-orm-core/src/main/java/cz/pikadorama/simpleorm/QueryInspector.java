@@ -0,0 +1,21 @@
+package cz.pikadorama.simpleorm;
+
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+
+/**
+ * Hook called by the default DAOs of an {@link EntityStore} before they run a query, e.g. to
+ * check its query plan. See {@link EntityStore.Builder#queryInspector(QueryInspector)}.
+ */
+public interface QueryInspector {
+
+    /**
+     * Called before the query is executed, on the calling thread.
+     *
+     * @param connection  connection executing the query
+     * @param sql         query
+     * @param entityClass entity class of the DAO executing the query
+     * @param tableName   table of the DAO
+     */
+    void inspect(BackendConnection connection, String sql, Class<?> entityClass, String tableName);
+
+}
@@ -0,0 +1,148 @@
+package cz.pikadorama.simpleorm;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+
+/**
+ * {@link BackendCursor} over rows held in memory, so a mapping can read new objects from them.
+ * Values are the column values produced by the mapping and are converted the way SQLite
+ * would convert them. BLOB values are copied, the read objects do not share them.
+ */
+final class RowValuesCursor implements BackendCursor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String[] columnNames;
+    private final List<Object[]> rows;
+    private int position = -1;
+
+    /**
+     * @param columnNames column names
+     * @param rows        values of the rows in the order of the column names
+     */
+    RowValuesCursor(String[] columnNames, List<Object[]> rows) {
+        this.columnNames = columnNames;
+        this.rows = rows;
+    }
+
+    @Override
+    public boolean moveToNext() {
+        if (position < rows.size()) {
+            position++;
+        }
+        return position < rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return columnNames[columnIndex];
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value == null) {
+            return TYPE_NULL;
+        } else if (value instanceof Double || value instanceof Float) {
+            return TYPE_FLOAT;
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return TYPE_INTEGER;
+        } else if (value instanceof byte[]) {
+            return TYPE_BLOB;
+        }
+        return TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return getValue(columnIndex) == null;
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value instanceof Double || value instanceof Float) {
+            return (long) ((Number) value).doubleValue();
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return (long) getDouble(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        } else if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(getString(columnIndex).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value == null) {
+            return null;
+        } else if (value instanceof byte[]) {
+            return new String((byte[]) value, UTF_8);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? "1" : "0";
+        }
+        return value.toString();
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value == null) {
+            return null;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return getString(columnIndex).getBytes(UTF_8);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private Object getValue(int columnIndex) {
+        if (position < 0 || position >= rows.size()) {
+            throw new IllegalStateException("Cursor is not positioned at a row.");
+        }
+        return rows.get(position)[columnIndex];
+    }
+}
@@ -0,0 +1,359 @@
+package cz.pikadorama.simpleorm;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.dao.EntityBinding;
+import cz.pikadorama.simpleorm.dao.RowVisitor;
+
+/**
+ * In-memory copy of a {@link DbTable#mirrored()} table, see
+ * {@link EntityStore#getMirror(Class)}. The whole table is held in an immutable snapshot with
+ * rows sorted by ID and hash indexes of the {@link DbColumn#mirrorIndex()} columns. Every
+ * write through the DAO of the table builds a new snapshot once its transaction commits and
+ * swaps it atomically, so readers never wait and always see a complete committed table. Only
+ * the written rows are read from SQLite, the other rows are shared with the previous snapshot.
+ * Building the snapshot still takes time and memory linear in the table size, so the mirror
+ * suits small tables which are read much more often than written.
+ *
+ * Objects returned by the mirror are shared by all readers, do not modify them. The DAO of the
+ * table returns copies read from the column values held by the snapshot, so they can be
+ * modified and updated as objects read from SQLite. Writes which bypass the DAO (raw SQL,
+ * other processes) are not seen until {@link #reload()}. Reads from the mirror do not join
+ * read transactions of the Android {@code Database}.
+ */
+public final class TableMirror<T> {
+
+    private final String tableName;
+    private final EntityBinding<T> binding;
+    private final Dao<T> source;
+    private final String[] columnNames;
+    private final int idColumnIndex;
+    private final Map<String, Field> indexedFields = new LinkedHashMap<>();
+    private final AtomicReference<Snapshot<T>> snapshot = new AtomicReference<>();
+
+    /**
+     * @param entityClass entity class of the mirrored table
+     * @param binding     mapping of the entity
+     * @param source      DAO reading the table from SQLite
+     * @param columnNames all columns of the table
+     */
+    TableMirror(Class<T> entityClass, EntityBinding<T> binding, Dao<T> source, List<String> columnNames) {
+        this.tableName = entityClass.getAnnotation(DbTable.class).name();
+        this.binding = binding;
+        this.source = source;
+        this.columnNames = columnNames.toArray(new String[columnNames.size()]);
+        this.idColumnIndex = columnNames.indexOf(EntitySchema.ID_COLUMN);
+        for (Field field : entityClass.getDeclaredFields()) {
+            DbColumn column = field.getAnnotation(DbColumn.class);
+            if (column != null && column.mirrorIndex()) {
+                field.setAccessible(true);
+                indexedFields.put(column.name(), field);
+            }
+        }
+    }
+
+    /**
+     * @param id object ID
+     * @return object or null if there is no such object
+     */
+    public T getById(long id) {
+        Snapshot<T> current = snapshot.get();
+        int position = Arrays.binarySearch(current.ids, id);
+        return position >= 0 ? current.rows.get(position) : null;
+    }
+
+    /**
+     * @return all objects sorted by ID, the list cannot be modified
+     */
+    public List<T> findAll() {
+        return snapshot.get().rows;
+    }
+
+    /**
+     * Finds objects by value of an indexed column. Numbers are compared by value regardless of
+     * their type.
+     *
+     * @param columnName name of a {@link DbColumn#mirrorIndex()} column
+     * @param value      column value, may be null
+     * @return objects sorted by ID or empty list, the list cannot be modified
+     * @throws IllegalArgumentException if the column is not indexed
+     */
+    public List<T> findBy(String columnName, Object value) {
+        Snapshot<T> current = snapshot.get();
+        Map<Object, int[]> index = current.indexes.get(columnName);
+        if (index == null) {
+            throw new IllegalArgumentException(String.format("Column %s of table %s is not indexed in memory.", columnName, tableName));
+        }
+        int[] positions = index.get(normalize(value));
+        if (positions == null) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            result.add(current.rows.get(position));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return number of objects
+     */
+    public int size() {
+        return snapshot.get().ids.length;
+    }
+
+    /**
+     * @param id object ID
+     * @return new copy of the object or null if there is no such object
+     */
+    T copyById(long id) {
+        Snapshot<T> current = snapshot.get();
+        int position = Arrays.binarySearch(current.ids, id);
+        if (position < 0) {
+            return null;
+        }
+        return readCopies(Collections.singletonList(current.values.get(position))).get(0);
+    }
+
+    /**
+     * @param ids object IDs
+     * @return new copies of the existing objects in the order of the IDs
+     */
+    List<T> copyByIds(long[] ids) {
+        Snapshot<T> current = snapshot.get();
+        List<Object[]> values = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            int position = Arrays.binarySearch(current.ids, id);
+            if (position >= 0) {
+                values.add(current.values.get(position));
+            }
+        }
+        return readCopies(values);
+    }
+
+    /**
+     * @return new copies of all objects sorted by ID
+     */
+    List<T> copyAll() {
+        return readCopies(snapshot.get().values);
+    }
+
+    /**
+     * Visits copies of all objects sorted by ID, read into the target if the mapping supports
+     * it, see {@link Dao#scanAll(Object, RowVisitor)}.
+     *
+     * @return number of visited objects
+     */
+    int scanCopies(T target, RowVisitor<T> visitor) {
+        int count = 0;
+        try (RowValuesCursor cursor = new RowValuesCursor(columnNames, snapshot.get().values)) {
+            EntityBinding.Reader<T> reader = binding.newReader(cursor);
+            EntityBinding.TargetReader<T> targetReader = reader instanceof EntityBinding.TargetReader
+                    ? (EntityBinding.TargetReader<T>) reader : null;
+            while (cursor.moveToNext()) {
+                count++;
+                T row;
+                if (targetReader != null) {
+                    targetReader.read(target);
+                    row = target;
+                } else {
+                    row = reader.read();
+                }
+                if (!visitor.visit(row)) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the whole table from SQLite and replaces the current snapshot. Call it after writes
+     * which bypass the DAO.
+     */
+    public synchronized void reload() {
+        List<T> rows = new ArrayList<>(source.findAll(columnNames));
+        sortById(rows);
+        publish(rows, new ArrayList<>(Collections.<Object[]>nCopies(rows.size(), null)));
+    }
+
+    /**
+     * Reads the rows of the given IDs from SQLite and replaces the current snapshot by a copy
+     * with these rows replaced, added or removed. Called after every committed write through
+     * the DAO.
+     *
+     * @param changedIds IDs of the written rows
+     */
+    synchronized void reload(long[] changedIds) {
+        Snapshot<T> current = snapshot.get();
+        if (current == null) {
+            reload();
+            return;
+        }
+        long[] sortedIds = changedIds.clone();
+        Arrays.sort(sortedIds);
+        List<T> changedRows = new ArrayList<>(source.getByIds(sortedIds, columnNames));
+        sortById(changedRows);
+
+        // merge of two lists sorted by ID, changed rows replace the current ones
+        List<T> rows = new ArrayList<>(current.ids.length + changedRows.size());
+        List<Object[]> values = new ArrayList<>(current.ids.length + changedRows.size());
+        int currentPosition = 0;
+        int changedPosition = 0;
+        while (currentPosition < current.ids.length || changedPosition < changedRows.size()) {
+            boolean hasCurrent = currentPosition < current.ids.length;
+            boolean hasChanged = changedPosition < changedRows.size();
+            long currentId = hasCurrent ? current.ids[currentPosition] : 0;
+            long changedId = hasChanged ? binding.getId(changedRows.get(changedPosition)) : 0;
+            if (hasChanged && (!hasCurrent || changedId <= currentId)) {
+                rows.add(changedRows.get(changedPosition++));
+                values.add(null);
+                if (hasCurrent && changedId == currentId) {
+                    currentPosition++;
+                }
+            } else {
+                // a changed row missing in SQLite was deleted
+                if (Arrays.binarySearch(sortedIds, currentId) < 0) {
+                    rows.add(current.rows.get(currentPosition));
+                    values.add(current.values.get(currentPosition));
+                }
+                currentPosition++;
+            }
+        }
+        publish(rows, values);
+    }
+
+    /**
+     * @return ID of the object
+     */
+    long getId(T obj) {
+        return binding.getId(obj);
+    }
+
+    /**
+     * Builds a new snapshot and swaps it with the current one.
+     *
+     * @param rows   rows sorted by ID
+     * @param values column values of the rows, null for the rows without them yet
+     */
+    private void publish(List<T> rows, List<Object[]> values) {
+        long[] ids = new long[rows.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = binding.getId(rows.get(i));
+        }
+
+        // column values to read copies from, the shared objects are never handed to the mapping
+        for (int i = 0; i < ids.length; i++) {
+            if (values.get(i) != null) {
+                continue;
+            }
+            Map<String, Object> rowValues = binding.toValues(rows.get(i));
+            Object[] columnValues = new Object[columnNames.length];
+            for (int j = 0; j < columnNames.length; j++) {
+                columnValues[j] = rowValues.get(columnNames[j]);
+            }
+            if (idColumnIndex != -1) {
+                columnValues[idColumnIndex] = ids[i];
+            }
+            values.set(i, columnValues);
+        }
+
+        Map<String, Map<Object, int[]>> indexes = new HashMap<>();
+        for (Map.Entry<String, Field> indexedField : indexedFields.entrySet()) {
+            indexes.put(indexedField.getKey(), buildIndex(rows, indexedField.getValue()));
+        }
+
+        snapshot.set(new Snapshot<>(ids, Collections.unmodifiableList(rows), values, indexes));
+    }
+
+    private void sortById(List<T> rows) {
+        Collections.sort(rows, new Comparator<T>() {
+            @Override
+            public int compare(T first, T second) {
+                return Long.compare(binding.getId(first), binding.getId(second));
+            }
+        });
+    }
+
+    private List<T> readCopies(List<Object[]> values) {
+        List<T> copies = new ArrayList<>(values.size());
+        try (RowValuesCursor cursor = new RowValuesCursor(columnNames, values)) {
+            EntityBinding.Reader<T> reader = binding.newReader(cursor);
+            while (cursor.moveToNext()) {
+                copies.add(reader.read());
+            }
+        }
+        return copies;
+    }
+
+    private static <T> Map<Object, int[]> buildIndex(List<T> rows, Field field) {
+        Map<Object, List<Integer>> positionsByValue = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Object value;
+            try {
+                value = normalize(field.get(rows.get(i)));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to read field " + field, e);
+            }
+            List<Integer> positions = positionsByValue.get(value);
+            if (positions == null) {
+                positions = new ArrayList<>(1);
+                positionsByValue.put(value, positions);
+            }
+            positions.add(i);
+        }
+
+        Map<Object, int[]> index = new HashMap<>(positionsByValue.size() * 2);
+        for (Map.Entry<Object, List<Integer>> entry : positionsByValue.entrySet()) {
+            List<Integer> positions = entry.getValue();
+            int[] array = new int[positions.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = positions.get(i);
+            }
+            index.put(entry.getKey(), array);
+        }
+        return index;
+    }
+
+    /**
+     * Integral numbers are indexed as Long and decimal numbers as Double, so e.g. an Integer
+     * field can be found by a long value.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Character) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    private static final class Snapshot<T> {
+
+        private final long[] ids;
+        private final List<T> rows;
+        private final List<Object[]> values;
+        private final Map<String, Map<Object, int[]>> indexes;
+
+        private Snapshot(long[] ids, List<T> rows, List<Object[]> values, Map<String, Map<Object, int[]>> indexes) {
+            this.ids = ids;
+            this.rows = rows;
+            this.values = values;
+            this.indexes = indexes;
+        }
+    }
+}
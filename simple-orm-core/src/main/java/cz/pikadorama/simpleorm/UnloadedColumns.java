@@ -0,0 +1,102 @@
+package cz.pikadorama.simpleorm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Columns which were not read into objects (lazy columns and columns left out of projections),
+ * so {@link DefaultDao#update(Object)} does not overwrite their stored values with whatever the
+ * mapping left in the fields. Objects are held weakly and compared by identity, entities may
+ * override {@code equals}. Only objects read with some columns missing are tracked, readers
+ * of whole rows do not touch the map and readers of projections do not block each other.
+ */
+final class UnloadedColumns {
+
+    private final ConcurrentMap<ObjectKey, Set<String>> columnsByObject = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collectedObjects = new ReferenceQueue<>();
+
+    /**
+     * @param obj     object read from a cursor
+     * @param columns columns missing in the cursor, the set is not copied
+     */
+    void put(Object obj, Set<String> columns) {
+        expungeCollected();
+        columnsByObject.put(new ObjectKey(obj, collectedObjects), columns);
+    }
+
+    /**
+     * @return columns not read into the object or null if it has all columns
+     */
+    Set<String> get(Object obj) {
+        return columnsByObject.get(new ObjectKey(obj, null));
+    }
+
+    /**
+     * Forgets the columns of an object which was read whole.
+     */
+    void remove(Object obj) {
+        columnsByObject.remove(new ObjectKey(obj, null));
+    }
+
+    /**
+     * @param obj     object the columns were read into
+     * @param columns columns read into the object
+     */
+    void markLoaded(Object obj, Collection<String> columns) {
+        ObjectKey key = new ObjectKey(obj, null);
+        while (true) {
+            Set<String> unloaded = columnsByObject.get(key);
+            if (unloaded == null) {
+                return;
+            }
+            Set<String> remaining = new HashSet<>(unloaded);
+            remaining.removeAll(columns);
+            boolean replaced = remaining.isEmpty()
+                    ? columnsByObject.remove(key, unloaded)
+                    : columnsByObject.replace(key, unloaded, remaining);
+            if (replaced) {
+                return;
+            }
+        }
+    }
+
+    private void expungeCollected() {
+        Reference<?> reference;
+        while ((reference = collectedObjects.poll()) != null) {
+            columnsByObject.remove(reference);
+        }
+    }
+
+    private static final class ObjectKey extends WeakReference<Object> {
+
+        private final int hash;
+
+        private ObjectKey(Object obj, ReferenceQueue<Object> queue) {
+            super(obj, queue);
+            this.hash = System.identityHashCode(obj);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof ObjectKey)) {
+                return false;
+            }
+            Object obj = get();
+            return obj != null && obj == ((ObjectKey) other).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cz.pikadorama.simpleorm;
+
+/**
+ * Block of database writes executed in a single transaction, see
+ * {@link EntityStore#writeTransaction(WriteTransaction)}.
+ *
+ * @param <R> type of the result
+ */
+public interface WriteTransaction<R> {
+
+    /**
+     * Runs the writes. All DAO calls made from this method on the calling thread are committed
+     * together, an exception thrown from this method rolls all of them back.
+     *
+     * @return result of the transaction
+     */
+    R execute();
+
+}
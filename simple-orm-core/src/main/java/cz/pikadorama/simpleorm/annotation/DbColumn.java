@@ -0,0 +1,68 @@
+package cz.pikadorama.simpleorm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import cz.pikadorama.simpleorm.DbCompression;
+import cz.pikadorama.simpleorm.DbDataType;
+
+
+/**
+ * Annotation for database columns.
+ *
+ * NOTE: if you annotate an ID column with autoincrement option, make sure that the data type is
+ * {@link DbDataType#INTEGER}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface DbColumn {
+
+    /**
+     * Database column name.
+     */
+    public String name();
+
+    /**
+     * Database column data type.
+     */
+    public DbDataType type();
+
+    /**
+     * (OPTIONAL) Additional database column properties.
+     *
+     * @return additional database column properties
+     */
+    public String properties() default "";
+
+    /**
+     * (OPTIONAL) Lazy columns are not selected by bulk reads of the DAO (e.g. findAll), they
+     * are loaded on demand by {@link cz.pikadorama.simpleorm.dao.Dao#loadLazyColumns(java.util.List, String...)}.
+     * Use it for large values which are not needed in lists. The mapping must then read rows
+     * into existing objects and handle the column missing in the cursor, which is checked when
+     * the DAO is created. Updates of objects read without the column keep its stored value.
+     *
+     * @return true if the column is loaded lazily
+     */
+    public boolean lazy() default false;
+
+    /**
+     * (OPTIONAL) Compression of the column values, allowed for {@link DbDataType#TEXT} and
+     * {@link DbDataType#BLOB} columns only. Compressed values are stored as BLOBs, so they
+     * cannot be searched or compared by SQL. The mapping sees the original values.
+     *
+     * @return compression of the column values
+     */
+    public DbCompression compression() default DbCompression.NONE;
+
+    /**
+     * (OPTIONAL) Column of a {@link DbTable#mirrored()} table which gets an in-memory index,
+     * so its mirror can find rows by the column value. Not allowed for
+     * {@link DbDataType#BLOB} columns.
+     *
+     * @return true if the column is indexed in the mirror
+     */
+    public boolean mirrorIndex() default false;
+
+}
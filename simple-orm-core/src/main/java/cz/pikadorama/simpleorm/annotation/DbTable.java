@@ -0,0 +1,38 @@
+package cz.pikadorama.simpleorm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation for classes that represent database tables.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DbTable {
+
+    /**
+     * Database table name.
+     */
+    public String name();
+
+    /**
+     * Class name for {@code DaoQueryHelper} which implement bi-directional cursor mapping and
+     * other mandatory stuff for the DB framework. Entities used outside Android set
+     * {@link cz.pikadorama.simpleorm.dao.EntityMapper} implementation instead.
+     */
+    public Class<?> mappingClass();
+
+    /**
+     * (OPTIONAL) Mirrored tables are kept whole in memory by {@code EntityStore} and
+     * {@code Database}, reads by ID and {@code findAll} of their DAO do not touch SQLite, see
+     * {@code TableMirror}. Use it for small reference tables which are read often and change
+     * rarely, every write through the DAO re-reads the written rows and copies the snapshot of
+     * the whole table (without reading the other rows from SQLite again).
+     *
+     * @return true if the table is mirrored in memory
+     */
+    public boolean mirrored() default false;
+
+}
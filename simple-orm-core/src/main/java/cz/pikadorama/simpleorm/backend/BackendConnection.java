@@ -0,0 +1,65 @@
+package cz.pikadorama.simpleorm.backend;
+
+/**
+ * Connection of a {@link StorageBackend}. Transactions follow the Android model: they can be
+ * nested, every level must be marked successful by {@link #setTransactionSuccessful()} before
+ * {@link #endTransaction()}, otherwise the whole transaction is rolled back.
+ *
+ * Arguments are bound by their type: {@code null}, {@link Number}, {@link Boolean},
+ * {@link String} and {@code byte[]} are supported.
+ */
+public interface BackendConnection {
+
+    /**
+     * Runs the given query.
+     *
+     * @param sql  query
+     * @param args query arguments
+     * @return cursor over the result, it must be closed
+     */
+    BackendCursor query(String sql, Object... args);
+
+    /**
+     * Runs the given query with 64-bit integer arguments, e.g. a list of IDs, without boxing
+     * them.
+     *
+     * @param sql    query
+     * @param args   array of arguments
+     * @param offset index of the first argument to bind
+     * @param length number of arguments to bind
+     * @return cursor over the result, it must be closed
+     */
+    BackendCursor queryLongArgs(String sql, long[] args, int offset, int length);
+
+    /**
+     * Runs the given statement, which does not return rows.
+     *
+     * @param sql  statement
+     * @param args statement arguments
+     */
+    void execute(String sql, Object... args);
+
+    /**
+     * Compiles the given statement for repeated execution.
+     *
+     * @param sql statement
+     * @return compiled statement, it must be closed
+     */
+    BackendStatement compileStatement(String sql);
+
+    /**
+     * Runs the given task once the outermost transaction of this connection is committed, or
+     * right away if no transaction is open. The task is dropped if the transaction is rolled
+     * back, a task registered more than once in one transaction runs once.
+     *
+     * @param task task to run, e.g. refreshing a cache of the written data
+     */
+    void runAfterCommit(Runnable task);
+
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+}
@@ -0,0 +1,56 @@
+package cz.pikadorama.simpleorm.backend;
+
+/**
+ * Forward-only cursor of a {@link BackendConnection}. Columns are indexed from 0, as in
+ * {@code android.database.Cursor}.
+ */
+public interface BackendCursor extends AutoCloseable {
+
+    /**
+     * Value types returned by {@link #getType(int)}, the same as in {@code android.database.Cursor}.
+     */
+    int TYPE_NULL = 0;
+    int TYPE_INTEGER = 1;
+    int TYPE_FLOAT = 2;
+    int TYPE_STRING = 3;
+    int TYPE_BLOB = 4;
+
+    /**
+     * Moves to the next row, the cursor starts before the first row.
+     *
+     * @return false if there is no next row
+     */
+    boolean moveToNext();
+
+    int getColumnCount();
+
+    /**
+     * @param columnName column name
+     * @return column index or -1 if the cursor has no such column
+     */
+    int getColumnIndex(String columnName);
+
+    String getColumnName(int columnIndex);
+
+    /**
+     * @param columnIndex column index
+     * @return type of the value in the current row, one of the {@code TYPE_} constants
+     */
+    int getType(int columnIndex);
+
+    boolean isNull(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    double getDouble(int columnIndex);
+
+    String getString(int columnIndex);
+
+    byte[] getBlob(int columnIndex);
+
+    @Override
+    void close();
+
+}
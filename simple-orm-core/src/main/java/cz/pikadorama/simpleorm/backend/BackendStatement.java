@@ -0,0 +1,50 @@
+package cz.pikadorama.simpleorm.backend;
+
+/**
+ * Compiled statement of a {@link BackendConnection}. Arguments are indexed from 1.
+ */
+public interface BackendStatement extends AutoCloseable {
+
+    /**
+     * Binds argument of any type supported by {@link BackendConnection}.
+     *
+     * @param index argument index
+     * @param value argument value
+     */
+    void bind(int index, Object value);
+
+    void bindLong(int index, long value);
+
+    void clearBindings();
+
+    /**
+     * Executes the insert with the current arguments.
+     *
+     * @return row ID of the inserted row
+     */
+    long executeInsert();
+
+    /**
+     * Executes the update or delete with the current arguments.
+     *
+     * @return number of changed rows
+     */
+    int executeUpdateDelete();
+
+    /**
+     * Adds the current arguments to the batch executed by {@link #executeBatch()}. Backends
+     * without batch support may execute the statement right away.
+     */
+    void addBatch();
+
+    /**
+     * Executes all batched argument sets. Arguments have to be bound again afterwards.
+     *
+     * @return number of changed rows
+     */
+    int executeBatch();
+
+    @Override
+    void close();
+
+}
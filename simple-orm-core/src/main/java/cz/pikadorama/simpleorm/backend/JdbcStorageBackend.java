@@ -0,0 +1,557 @@
+package cz.pikadorama.simpleorm.backend;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link StorageBackend} over a JDBC SQLite driver (e.g. {@code org.xerial:sqlite-jdbc}), for
+ * using the entities on the JVM. It keeps one write connection, used by one thread at a time,
+ * and a pool of read connections opened on demand. The database is switched to write-ahead
+ * logging so the readers do not wait for the writer.
+ *
+ * Read connections are separate connections to the same URL, so use a file database when
+ * {@code readConnections > 0}. Every connection of an in-memory URL opens its own database.
+ *
+ * {@link #close()} waits until the connections acquired by other threads are released, do not
+ * call it while holding a read connection.
+ */
+public final class JdbcStorageBackend implements StorageBackend {
+
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    private final String url;
+    private final Properties properties;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final JdbcConnection writeConnection;
+    private final int maxReadConnections;
+    private final Semaphore readPermits;
+    private final ConcurrentLinkedQueue<JdbcConnection> idleReadConnections = new ConcurrentLinkedQueue<>();
+    private final List<JdbcConnection> readConnections = new ArrayList<>();
+    private final ThreadLocal<HeldConnection> heldReadConnection = new ThreadLocal<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the write connection, read connections are opened when needed.
+     *
+     * @param url             JDBC URL, e.g. {@code jdbc:sqlite:/path/to/file.db}
+     * @param readConnections maximum number of read connections, 0 to read by the write connection
+     */
+    public JdbcStorageBackend(String url, int readConnections) {
+        this(url, new Properties(), readConnections);
+    }
+
+    /**
+     * @param url             JDBC URL, e.g. {@code jdbc:sqlite:/path/to/file.db}
+     * @param properties      driver properties
+     * @param readConnections maximum number of read connections, 0 to read by the write connection
+     */
+    public JdbcStorageBackend(String url, Properties properties, int readConnections) {
+        if (readConnections < 0) {
+            throw new IllegalArgumentException("Number of read connections must be >= 0.");
+        }
+        this.url = url;
+        this.properties = properties;
+        this.maxReadConnections = readConnections;
+        this.readPermits = new Semaphore(readConnections, true);
+        this.writeConnection = openConnection();
+        if (readConnections > 0) {
+            try (BackendCursor cursor = writeConnection.query("pragma journal_mode = wal;")) {
+                cursor.moveToNext();
+            }
+        }
+    }
+
+    @Override
+    public BackendConnection acquireConnection(boolean write) {
+        if (write || maxReadConnections == 0 || writeLock.isHeldByCurrentThread()) {
+            writeLock.lock();
+            if (closed) {
+                writeLock.unlock();
+                throw new IllegalStateException("Storage backend " + url + " is closed.");
+            }
+            return writeConnection;
+        }
+
+        HeldConnection held = heldReadConnection.get();
+        if (held != null) {
+            held.depth++;
+            return held.connection;
+        }
+
+        readPermits.acquireUninterruptibly();
+        if (closed) {
+            readPermits.release();
+            throw new IllegalStateException("Storage backend " + url + " is closed.");
+        }
+        JdbcConnection connection = idleReadConnections.poll();
+        if (connection == null) {
+            try {
+                connection = openConnection();
+            } catch (RuntimeException e) {
+                readPermits.release();
+                throw e;
+            }
+            synchronized (readConnections) {
+                readConnections.add(connection);
+            }
+        }
+        heldReadConnection.set(new HeldConnection(connection));
+        return connection;
+    }
+
+    @Override
+    public void releaseConnection(BackendConnection connection) {
+        if (connection == writeConnection) {
+            writeLock.unlock();
+            return;
+        }
+
+        HeldConnection held = heldReadConnection.get();
+        if (held == null || held.connection != connection) {
+            throw new IllegalStateException("Connection is not held by the current thread.");
+        }
+        if (--held.depth == 0) {
+            heldReadConnection.remove();
+            idleReadConnections.add(held.connection);
+            readPermits.release();
+        }
+    }
+
+    /**
+     * Closes all connections once they are released. Connections cannot be acquired after
+     * close.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writeLock.lock();
+        try {
+            writeConnection.close();
+        } finally {
+            writeLock.unlock();
+        }
+
+        // all permits are free only when no read connection is in use
+        readPermits.acquireUninterruptibly(maxReadConnections);
+        try {
+            synchronized (readConnections) {
+                for (JdbcConnection connection : readConnections) {
+                    connection.close();
+                }
+                readConnections.clear();
+            }
+            idleReadConnections.clear();
+        } finally {
+            readPermits.release(maxReadConnections);
+        }
+    }
+
+    private JdbcConnection openConnection() {
+        try {
+            Connection connection = DriverManager.getConnection(url, properties);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("pragma busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+            }
+            return new JdbcConnection(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to open " + url, e);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.NULL);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.setDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.setLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.setLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.setBytes(index, (byte[]) value);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    private static final class HeldConnection {
+
+        private final JdbcConnection connection;
+        private int depth = 1;
+
+        private HeldConnection(JdbcConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private static final class JdbcConnection implements BackendConnection {
+
+        private final Connection connection;
+        private final TransactionTracker transaction = new TransactionTracker();
+
+        private JdbcConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public BackendCursor query(String sql, Object... args) {
+            PreparedStatement statement = null;
+            try {
+                statement = connection.prepareStatement(sql);
+                for (int i = 0; i < args.length; i++) {
+                    bind(statement, i + 1, args[i]);
+                }
+                return new JdbcCursor(statement, statement.executeQuery());
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                throw new IllegalStateException("Query failed: " + sql, e);
+            }
+        }
+
+        @Override
+        public BackendCursor queryLongArgs(String sql, long[] args, int offset, int length) {
+            PreparedStatement statement = null;
+            try {
+                statement = connection.prepareStatement(sql);
+                for (int i = 0; i < length; i++) {
+                    statement.setLong(i + 1, args[offset + i]);
+                }
+                return new JdbcCursor(statement, statement.executeQuery());
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                throw new IllegalStateException("Query failed: " + sql, e);
+            }
+        }
+
+        @Override
+        public void execute(String sql, Object... args) {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < args.length; i++) {
+                    bind(statement, i + 1, args[i]);
+                }
+                statement.execute();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Statement failed: " + sql, e);
+            }
+        }
+
+        @Override
+        public BackendStatement compileStatement(String sql) {
+            try {
+                return new JdbcStatement(this, connection.prepareStatement(sql), sql);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to compile: " + sql, e);
+            }
+        }
+
+        @Override
+        public void runAfterCommit(Runnable task) {
+            transaction.runAfterCommit(task);
+        }
+
+        @Override
+        public void beginTransaction() {
+            if (!transaction.isActive()) {
+                try {
+                    connection.setAutoCommit(false);
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Unable to begin transaction.", e);
+                }
+            }
+            transaction.begin();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            transaction.setSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            if (!transaction.end()) {
+                return;
+            }
+            boolean committed = false;
+            try {
+                if (transaction.isFailed()) {
+                    connection.rollback();
+                } else {
+                    connection.commit();
+                    committed = true;
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to end transaction.", e);
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Unable to end transaction.", e);
+                }
+            }
+            transaction.completed(committed);
+        }
+
+        private long lastInsertRowId() {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("select last_insert_rowid();")) {
+                return resultSet.next() ? resultSet.getLong(1) : -1;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read last insert row ID.", e);
+            }
+        }
+
+        private void close() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to close connection.", e);
+            }
+        }
+
+        private static void closeQuietly(Statement statement) {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // the original error is more important
+                }
+            }
+        }
+    }
+
+    private static final class JdbcStatement implements BackendStatement {
+
+        private final JdbcConnection connection;
+        private final PreparedStatement statement;
+        private final String sql;
+
+        private JdbcStatement(JdbcConnection connection, PreparedStatement statement, String sql) {
+            this.connection = connection;
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public void bind(int index, Object value) {
+            try {
+                JdbcStorageBackend.bind(statement, index, value);
+            } catch (SQLException e) {
+                throw new IllegalArgumentException("Unable to bind argument " + index + " of: " + sql, e);
+            }
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            try {
+                statement.setLong(index, value);
+            } catch (SQLException e) {
+                throw new IllegalArgumentException("Unable to bind argument " + index + " of: " + sql, e);
+            }
+        }
+
+        @Override
+        public void clearBindings() {
+            try {
+                statement.clearParameters();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to clear arguments of: " + sql, e);
+            }
+        }
+
+        @Override
+        public long executeInsert() {
+            try {
+                return statement.executeUpdate() > 0 ? connection.lastInsertRowId() : -1;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Insert failed: " + sql, e);
+            }
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            try {
+                return statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Statement failed: " + sql, e);
+            }
+        }
+
+        @Override
+        public void addBatch() {
+            try {
+                statement.addBatch();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to add batch of: " + sql, e);
+            }
+        }
+
+        @Override
+        public int executeBatch() {
+            try {
+                int changes = 0;
+                for (int count : statement.executeBatch()) {
+                    if (count > 0) {
+                        changes += count;
+                    }
+                }
+                // some driver versions keep the batched arguments bound to the next execution
+                statement.clearParameters();
+                return changes;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Batch failed: " + sql, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            JdbcConnection.closeQuietly(statement);
+        }
+    }
+
+    private static final class JdbcCursor implements BackendCursor {
+
+        private final Statement statement;
+        private final ResultSet resultSet;
+        private final List<String> columnNames = new ArrayList<>();
+        private final Map<String, Integer> columnIndexes = new HashMap<>();
+
+        private JdbcCursor(Statement statement, ResultSet resultSet) throws SQLException {
+            this.statement = statement;
+            this.resultSet = resultSet;
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                String columnName = metaData.getColumnLabel(i);
+                columnNames.add(columnName);
+                // the first of duplicate names wins, as in android.database.Cursor
+                if (!columnIndexes.containsKey(columnName)) {
+                    columnIndexes.put(columnName, i - 1);
+                }
+            }
+        }
+
+        @Override
+        public boolean moveToNext() {
+            try {
+                return resultSet.next();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read next row.", e);
+            }
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columnNames.size();
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            Integer index = columnIndexes.get(columnName);
+            return index != null ? index : -1;
+        }
+
+        @Override
+        public String getColumnName(int columnIndex) {
+            return columnNames.get(columnIndex);
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            Object value;
+            try {
+                value = resultSet.getObject(columnIndex + 1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read column " + columnIndex, e);
+            }
+            if (value == null) {
+                return TYPE_NULL;
+            } else if (value instanceof Double || value instanceof Float) {
+                return TYPE_FLOAT;
+            } else if (value instanceof Number) {
+                return TYPE_INTEGER;
+            } else if (value instanceof byte[]) {
+                return TYPE_BLOB;
+            }
+            return TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int columnIndex) {
+            try {
+                return resultSet.getObject(columnIndex + 1) == null;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read column " + columnIndex, e);
+            }
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            try {
+                return resultSet.getLong(columnIndex + 1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read column " + columnIndex, e);
+            }
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            try {
+                return resultSet.getInt(columnIndex + 1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read column " + columnIndex, e);
+            }
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            try {
+                return resultSet.getDouble(columnIndex + 1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read column " + columnIndex, e);
+            }
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            try {
+                return resultSet.getString(columnIndex + 1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read column " + columnIndex, e);
+            }
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            try {
+                return resultSet.getBytes(columnIndex + 1);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read column " + columnIndex, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                // closing the statement closes the result set as well
+            } finally {
+                JdbcConnection.closeQuietly(statement);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cz.pikadorama.simpleorm.backend;
+
+/**
+ * Storage used by {@link cz.pikadorama.simpleorm.EntityStore}: a pool of connections to one
+ * SQLite database. {@code AndroidStorageBackend} of the Android library works over
+ * {@code SQLiteOpenHelper}, {@link JdbcStorageBackend} over a JDBC SQLite driver on the JVM.
+ *
+ * Every acquired connection must be released by {@link #releaseConnection(BackendConnection)}
+ * on the same thread, nested acquisitions on one thread are allowed.
+ */
+public interface StorageBackend {
+
+    /**
+     * Acquires a connection for the calling thread. A write connection is exclusive until it is
+     * released, a read connection may be shared and must not be used for writes. Reads of a
+     * thread which holds the write connection use the write connection, so they see its
+     * uncommitted changes.
+     *
+     * @param write true for a connection which can write
+     * @return connection
+     */
+    BackendConnection acquireConnection(boolean write);
+
+    /**
+     * Returns the connection acquired by {@link #acquireConnection(boolean)}.
+     *
+     * @param connection connection to release
+     */
+    void releaseConnection(BackendConnection connection);
+
+    /**
+     * Closes all connections.
+     */
+    void close();
+
+}
@@ -0,0 +1,96 @@
+package cz.pikadorama.simpleorm.backend;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Nesting and outcome of the transactions of one connection and the tasks waiting for their
+ * commit, for {@link BackendConnection} implementations. Not thread safe, a connection is used
+ * by one thread at a time.
+ */
+public final class TransactionTracker {
+
+    private final Set<Runnable> afterCommitTasks = new LinkedHashSet<>();
+    private int depth = 0;
+    private boolean levelSuccessful = false;
+    private boolean failed = false;
+
+    /**
+     * @return true if a transaction is open
+     */
+    public boolean isActive() {
+        return depth > 0;
+    }
+
+    /**
+     * Begins a transaction or its nested level.
+     */
+    public void begin() {
+        if (depth == 0) {
+            failed = false;
+            // left over by an outermost level which failed to end
+            afterCommitTasks.clear();
+        }
+        depth++;
+        levelSuccessful = false;
+    }
+
+    public void setSuccessful() {
+        if (depth == 0) {
+            throw new IllegalStateException("There is no transaction.");
+        }
+        levelSuccessful = true;
+    }
+
+    /**
+     * Ends the current level, the transaction fails if the level was not marked successful.
+     *
+     * @return true if the outermost level ended and the transaction has to be committed or
+     * rolled back
+     */
+    public boolean end() {
+        if (depth == 0) {
+            throw new IllegalStateException("There is no transaction.");
+        }
+        failed |= !levelSuccessful;
+        // the enclosing level has to be marked successful after its nested transactions end
+        levelSuccessful = false;
+        return --depth == 0;
+    }
+
+    /**
+     * @return true if some level of the transaction was not successful, so it is rolled back
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * See {@link BackendConnection#runAfterCommit(Runnable)}.
+     */
+    public void runAfterCommit(Runnable task) {
+        if (depth == 0) {
+            task.run();
+        } else {
+            afterCommitTasks.add(task);
+        }
+    }
+
+    /**
+     * Runs the tasks waiting for the commit or drops them, call it once the outermost level is
+     * committed or rolled back.
+     *
+     * @param committed true if the transaction was committed
+     */
+    public void completed(boolean committed) {
+        List<Runnable> tasks = new ArrayList<>(afterCommitTasks);
+        afterCommitTasks.clear();
+        if (committed) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package cz.pikadorama.simpleorm.dao;
+
+import java.util.List;
+
+public interface Dao<T> {
+
+    /**
+     * Finds object in database by the given ID.
+     *
+     * @param id object ID
+     * @return object or null
+     */
+    T getById(long id);
+
+    /**
+     * Finds objects in database with the given IDs.
+     *
+     * @param ids object IDs
+     * @return objects or empty list
+     */
+    List<T> getByIds(long[] ids);
+
+    /**
+     * Finds object in database by the given ID, reading only the given columns.
+     *
+     * @param id      object ID
+     * @param columns names of the columns to read (as in {@code DbColumn}), ID is always read
+     * @return object or null
+     */
+    T getById(long id, String[] columns);
+
+    /**
+     * Finds objects in database with the given IDs, reading only the given columns.
+     *
+     * @param ids     object IDs
+     * @param columns names of the columns to read (as in {@code DbColumn}), ID is always read
+     * @return objects or empty list
+     */
+    List<T> getByIds(long[] ids, String[] columns);
+
+    /**
+     * Creates a new object in database.
+     *
+     * @param obj instance to create
+     * @return ID of the created object, -1 if the creation failed
+     */
+    long create(T obj);
+
+    /**
+     * Creates new objects in database in a single transaction and sets their IDs. Statements
+     * are executed in batches where the storage supports it.
+     *
+     * @param objects instances to create
+     */
+    void createAll(List<T> objects);
+
+    /**
+     * Updates old object in database with the same ID with the new values. Columns the object
+     * was read without (lazy columns, projections) keep their stored values until they are
+     * loaded by {@link #loadLazyColumns(List, String...)}. Nothing is written if there is no
+     * column left to update.
+     *
+     * @param obj instance with new values, ID must not be changed
+     */
+    void update(T obj);
+
+    /**
+     * Deletes object from database.
+     *
+     * @param obj object to delete
+     */
+    void delete(T obj);
+
+
+    /**
+     * Deletes object from database.
+     *
+     * @param id id of object to delete
+     */
+    void delete(long id);
+
+    /**
+     * Deletes all objetcs of the type from the database. Does not cascade.
+     */
+    void deleteAll();
+
+    /**
+     * Finds all objects in database.
+     *
+     * @return list of all objects or empty list
+     */
+    List<T> findAll();
+
+    /**
+     * Finds all objects in database, reading only the given columns. Fields of the other
+     * columns keep the values set by the mapping.
+     *
+     * @param columns names of the columns to read (as in {@code DbColumn}), ID is always read
+     * @return list of all objects or empty list
+     */
+    List<T> findAll(String[] columns);
+
+    /**
+     * Loads the given columns into already read objects by a single query. Used for lazy
+     * columns skipped by bulk reads and for columns left out of a projection. Requires a
+     * mapping which reads rows into existing objects ({@link EntityMapper} or
+     * {@code IndexedDaoQueryHelper}).
+     *
+     * @param objects objects to load the columns into
+     * @param columns names of the columns to load, all lazy columns if none are given
+     */
+    void loadLazyColumns(List<T> objects, String... columns);
+
+    /**
+     * Custom query.
+     *
+     * @param query       query
+     * @param columnNames column names to select
+     * @return list of all objects that satisfy the query or empty list
+     */
+    List<T> query(String query, String[] columnNames);
+
+    /**
+     * Iterates all objects in database one by one. If the mapping of the type reads rows into
+     * existing objects ({@link EntityMapper} or {@code IndexedDaoQueryHelper}), all rows are
+     * read into the given target instance and no object is created per row. Otherwise the
+     * target is ignored and a new object is created for each row. Columns missing in the rows
+     * of such new objects are not remembered, {@link #update(Object)} of them writes all
+     * columns.
+     *
+     * @param target  instance to reuse for the rows
+     * @param visitor callback called for each row
+     * @return number of visited rows
+     */
+    int scanAll(T target, RowVisitor<T> visitor);
+
+    /**
+     * Custom query iterated row by row, see {@link #scanAll(Object, RowVisitor)}.
+     *
+     * @param query         query
+     * @param selectionArgs query arguments
+     * @param target        instance to reuse for the rows
+     * @param visitor       callback called for each row
+     * @return number of visited rows
+     */
+    int scan(String query, String[] selectionArgs, T target, RowVisitor<T> visitor);
+}
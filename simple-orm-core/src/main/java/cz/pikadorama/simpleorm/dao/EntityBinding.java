@@ -0,0 +1,88 @@
+package cz.pikadorama.simpleorm.dao;
+
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+
+/**
+ * Mapping of an entity as used by the default DAO. {@link EntityMapper} entities are bound by
+ * the DAO itself, other mappings set in {@link cz.pikadorama.simpleorm.annotation.DbTable#mappingClass()}
+ * (e.g. {@code DaoQueryHelper} on Android) are adapted to it by a {@link Factory}.
+ */
+public interface EntityBinding<T> {
+
+    /**
+     * Creates reader of the rows of the given cursor, called once per cursor.
+     *
+     * @param cursor cursor
+     * @return row reader, a {@link TargetReader} if {@link #readsIntoObjects()} is true
+     */
+    Reader<T> newReader(BackendCursor cursor);
+
+    /**
+     * @return true if {@link #newReader(BackendCursor)} returns {@link TargetReader}s
+     */
+    boolean readsIntoObjects();
+
+    /**
+     * Create column values from the given object, by column name. Supported values are
+     * {@code null}, numbers, booleans, strings and byte arrays.
+     *
+     * @param obj object
+     * @return column values of the object
+     */
+    Map<String, Object> toValues(T obj);
+
+    /**
+     * @param obj object
+     * @return ID or {@link EntityMapper#NO_ID}
+     */
+    long getId(T obj);
+
+    /**
+     * @param obj new object (no ID yet)
+     * @param id  id to set (provided by database)
+     */
+    void setId(T obj, long id);
+
+    /**
+     * Reads the current row of one cursor.
+     */
+    interface Reader<T> {
+
+        /**
+         * @return new object with data of the current row
+         */
+        T read();
+
+    }
+
+    /**
+     * Reader of a mapping which can fill existing objects.
+     */
+    interface TargetReader<T> extends Reader<T> {
+
+        /**
+         * Reads the current row into the given object, fields of the columns missing in the
+         * cursor are left untouched.
+         *
+         * @param target object to fill
+         */
+        void read(T target);
+
+    }
+
+    /**
+     * Creates bindings of the mapping classes which are not {@link EntityMapper}.
+     */
+    interface Factory {
+
+        /**
+         * @param entityClass entity class
+         * @param mapping     instance of {@link cz.pikadorama.simpleorm.annotation.DbTable#mappingClass()}
+         * @return binding or null if the mapping is not supported by this factory
+         */
+        <T> EntityBinding<T> create(Class<T> entityClass, Object mapping);
+
+    }
+}
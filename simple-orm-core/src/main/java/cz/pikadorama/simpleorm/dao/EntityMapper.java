@@ -0,0 +1,77 @@
+package cz.pikadorama.simpleorm.dao;
+
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+
+/**
+ * Platform independent alternative of {@code DaoQueryHelper}, set in
+ * {@link DbTable#mappingClass()} as well. Entities mapped by it work both with
+ * {@code Database} on Android and with {@code EntityStore} over any
+ * {@link cz.pikadorama.simpleorm.backend.StorageBackend}, e.g. JDBC on the JVM.
+ *
+ * As with {@code IndexedDaoQueryHelper}, column indexes are resolved once per cursor and
+ * cursors of projections contain only some of the columns.
+ */
+public interface EntityMapper<T> {
+
+    /**
+     * Value returned by {@link #getId(Object)} when the object has no ID yet. SQLite accepts
+     * any other 64-bit value including negative ones as a row ID, the minimal value is never
+     * assigned to a new row.
+     */
+    long NO_ID = Long.MIN_VALUE;
+
+    /**
+     * Resolve indexes of the mapped columns in the given cursor by
+     * {@link BackendCursor#getColumnIndex(String)}. Called once per cursor.
+     *
+     * @param cursor cursor
+     * @return column indexes, -1 for columns missing in the cursor
+     */
+    int[] getColumnIndexes(BackendCursor cursor);
+
+    /**
+     * Create a new empty object to be filled by {@link #readRow(BackendCursor, int[], Object)}.
+     *
+     * @return new object
+     */
+    T newObject();
+
+    /**
+     * Transform data of the current cursor row to the given object. All fields of the columns
+     * present in the cursor must be overwritten, fields of the missing columns left untouched.
+     *
+     * @param cursor        cursor
+     * @param columnIndexes column indexes returned by {@link #getColumnIndexes(BackendCursor)}
+     * @param target        object to fill
+     */
+    void readRow(BackendCursor cursor, int[] columnIndexes, T target);
+
+    /**
+     * Create column values from the given object, by column name. Supported values are
+     * {@code null}, numbers, booleans, strings and byte arrays.
+     *
+     * @param obj object
+     * @return column values of the object
+     */
+    Map<String, Object> toValues(T obj);
+
+    /**
+     * Return object's ID. If the object is null or the ID is not set, return {@link #NO_ID}.
+     *
+     * @param obj object
+     * @return ID or {@link #NO_ID}
+     */
+    long getId(T obj);
+
+    /**
+     * Set ID of newly created object.
+     *
+     * @param obj new object (no ID yet)
+     * @param id  id to set (provided by database)
+     */
+    void setId(T obj, long id);
+
+}
@@ -0,0 +1,17 @@
+package cz.pikadorama.simpleorm.dao;
+
+/**
+ * Callback for row by row iteration of query results, see {@link Dao#scanAll(Object, RowVisitor)}.
+ */
+public interface RowVisitor<T> {
+
+    /**
+     * Called for each row of the result. The row instance may be reused for the next row, so
+     * do not keep a reference to it.
+     *
+     * @param row object with data of the current row
+     * @return true to continue with the next row, false to stop the iteration
+     */
+    boolean visit(T row);
+
+}
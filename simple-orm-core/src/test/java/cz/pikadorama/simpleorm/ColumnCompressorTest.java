@@ -0,0 +1,297 @@
+package cz.pikadorama.simpleorm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.backend.JdbcStorageBackend;
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.dao.EntityMapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnCompressorTest {
+
+    private static final String TABLE_NAME = "CompressedEntity";
+    private static final String TEXT_COLUMN_NAME = "text";
+    private static final String DATA_COLUMN_NAME = "data";
+    private static final String JSON_COLUMN_NAME = "json";
+
+    /**
+     * Magic bytes and version 1 of the stored format.
+     */
+    private static final byte[] HEADER_PREFIX = {(byte) 0xC5, (byte) 0x0A, (byte) 0x5A, (byte) 0xF3, 1};
+    private static final int DICTIONARY_ID_OFFSET = 14;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private EntityStore store;
+    private Dao<CompressedEntity> dao;
+
+    @Before
+    public void openStore() throws Exception {
+        file = folder.newFile("compressed.db");
+        reopenStore();
+    }
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] randomData = new byte[1000];
+        new Random(42).nextBytes(randomData);
+        List<CompressedEntity> entities = new ArrayList<>();
+        entities.add(new CompressedEntity(repeat("compressible text ", 100), repeat("compressible data ", 100).getBytes(), null));
+        entities.add(new CompressedEntity("short", randomData, null));
+        entities.add(new CompressedEntity("", new byte[0], null));
+        entities.add(new CompressedEntity(null, null, null));
+        entities.add(new CompressedEntity("\u017elu\u0165ou\u010dk\u00fd k\u016f\u0148 " + repeat("\u00fap\u011bl ", 50), null, null));
+        dao.createAll(entities);
+
+        for (CompressedEntity entity : entities) {
+            CompressedEntity found = dao.getById(entity.id);
+            assertEquals(entity.text, found.text);
+            assertArrayEquals(entity.data, found.data);
+        }
+
+        // BLOB values always get the header, TEXT values only when they shrink
+        assertTrue(startsWithHeader(getStoredBlob(entities.get(0).id, TEXT_COLUMN_NAME)));
+        assertTrue(startsWithHeader(getStoredBlob(entities.get(1).id, DATA_COLUMN_NAME)));
+        assertEquals("short", getStoredText(entities.get(1).id, TEXT_COLUMN_NAME));
+
+        CompressionStats stats = store.getCompressionStats().get(TABLE_NAME + "." + TEXT_COLUMN_NAME);
+        assertEquals(4, stats.getCompressedValues());
+        assertTrue(stats.getCompressionRatio() > 1);
+    }
+
+    @Test
+    public void testTrainDictionary() throws Exception {
+        assertEquals(0, store.trainCompressionDictionary(CompressedEntity.class));
+
+        List<CompressedEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(new CompressedEntity(null, null, json(i)));
+        }
+        dao.createAll(entities);
+        long withoutDictionary = entities.get(0).id;
+        assertEquals(0, getDictionaryId(withoutDictionary));
+
+        assertEquals(1, store.trainCompressionDictionary(CompressedEntity.class));
+        CompressedEntity entity = new CompressedEntity(null, null, json(100));
+        dao.create(entity);
+        assertEquals(1, getDictionaryId(entity.id));
+        assertEquals(json(100), dao.getById(entity.id).json);
+        assertEquals(json(0), dao.getById(withoutDictionary).json);
+
+        // dictionaries are loaded when the store is opened
+        reopenStore();
+        assertEquals(json(100), dao.getById(entity.id).json);
+    }
+
+    @Test
+    public void testValuesOfOlderDictionaryStayReadable() throws Exception {
+        List<CompressedEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(new CompressedEntity(null, null, json(i)));
+        }
+        dao.createAll(entities);
+        assertEquals(1, store.trainCompressionDictionary(CompressedEntity.class));
+        CompressedEntity first = new CompressedEntity(null, null, json(100));
+        dao.create(first);
+
+        dao.create(new CompressedEntity(null, null, "{\"other\": [" + repeat("\"shape\", ", 30) + "\"end\"]}"));
+        assertEquals(2, store.trainCompressionDictionary(CompressedEntity.class));
+        CompressedEntity second = new CompressedEntity(null, null, json(101));
+        dao.create(second);
+
+        assertEquals(1, getDictionaryId(first.id));
+        assertEquals(2, getDictionaryId(second.id));
+        reopenStore();
+        assertEquals(json(100), dao.getById(first.id).json);
+        assertEquals(json(101), dao.getById(second.id).json);
+    }
+
+    @Test
+    public void testLegacyValues() {
+        byte[] magicOnly = concat(HEADER_PREFIX, new byte[]{0, 0, 0, 0, 3, 1, 2, 3});
+        // consistent header of a stored value, only the CRC32 does not match
+        byte[] badChecksum = concat(HEADER_PREFIX, new byte[]{0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 7, 7});
+        byte[] notDeflate = concat(HEADER_PREFIX, new byte[]{1, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 7, 7});
+        byte[] plainBlob = {1, 2, 3};
+        BackendConnection connection = store.getBackend().acquireConnection(true);
+        try {
+            String insert = String.format("insert into %s (_id, %s, %s) values (?, ?, ?);", TABLE_NAME, TEXT_COLUMN_NAME, DATA_COLUMN_NAME);
+            connection.execute(insert, 1, "plain text", plainBlob);
+            connection.execute(insert, 2, null, magicOnly);
+            connection.execute(insert, 3, null, badChecksum);
+            connection.execute(insert, 4, null, notDeflate);
+        } finally {
+            store.getBackend().releaseConnection(connection);
+        }
+
+        assertEquals("plain text", dao.getById(1).text);
+        assertArrayEquals(plainBlob, dao.getById(1).data);
+        assertArrayEquals(magicOnly, dao.getById(2).data);
+        assertArrayEquals(badChecksum, dao.getById(3).data);
+        assertArrayEquals(notDeflate, dao.getById(4).data);
+
+        // legacy value starting with the magic is written back with a header
+        CompressedEntity entity = dao.getById(2);
+        dao.update(entity);
+        assertTrue(getStoredBlob(2, DATA_COLUMN_NAME).length > magicOnly.length);
+        assertArrayEquals(magicOnly, dao.getById(2).data);
+    }
+
+    private void reopenStore() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        store = EntityStore.open(new JdbcStorageBackend("jdbc:sqlite:" + file.getAbsolutePath(), 1),
+                CompressedEntity.class);
+        dao = store.getDao(CompressedEntity.class);
+    }
+
+    private int getDictionaryId(long id) {
+        byte[] stored = getStoredBlob(id, JSON_COLUMN_NAME);
+        assertTrue(startsWithHeader(stored));
+        return (stored[DICTIONARY_ID_OFFSET] & 0xFF) << 24 | (stored[DICTIONARY_ID_OFFSET + 1] & 0xFF) << 16
+                | (stored[DICTIONARY_ID_OFFSET + 2] & 0xFF) << 8 | (stored[DICTIONARY_ID_OFFSET + 3] & 0xFF);
+    }
+
+    private byte[] getStoredBlob(long id, String column) {
+        BackendConnection connection = store.getBackend().acquireConnection(false);
+        try (BackendCursor cursor = connection.query(String.format("select %s from %s where _id = ?;", column, TABLE_NAME), id)) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(BackendCursor.TYPE_BLOB, cursor.getType(0));
+            return cursor.getBlob(0);
+        } finally {
+            store.getBackend().releaseConnection(connection);
+        }
+    }
+
+    private String getStoredText(long id, String column) {
+        BackendConnection connection = store.getBackend().acquireConnection(false);
+        try (BackendCursor cursor = connection.query(String.format("select %s from %s where _id = ?;", column, TABLE_NAME), id)) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(BackendCursor.TYPE_STRING, cursor.getType(0));
+            return cursor.getString(0);
+        } finally {
+            store.getBackend().releaseConnection(connection);
+        }
+    }
+
+    private static boolean startsWithHeader(byte[] stored) {
+        for (int i = 0; i < HEADER_PREFIX.length; i++) {
+            if (stored.length <= i || stored[i] != HEADER_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String json(int i) {
+        return String.format("{\"id\": %d, \"name\": \"item %d\", \"tags\": [\"red\", \"green\"], \"price\": %d.50, \"available\": true}", i, i, i);
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    @DbTable(name = TABLE_NAME, mappingClass = CompressedEntityMapper.class)
+    private static final class CompressedEntity {
+
+        @DbColumn(name = EntitySchema.ID_COLUMN, type = DbDataType.INTEGER, properties = "primary key")
+        private Long id;
+
+        @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT, compression = DbCompression.DEFLATE)
+        private String text;
+
+        @DbColumn(name = DATA_COLUMN_NAME, type = DbDataType.BLOB, compression = DbCompression.DEFLATE)
+        private byte[] data;
+
+        @DbColumn(name = JSON_COLUMN_NAME, type = DbDataType.TEXT, compression = DbCompression.DEFLATE_DICTIONARY)
+        private String json;
+
+        public CompressedEntity(String text, byte[] data, String json) {
+            this.text = text;
+            this.data = data;
+            this.json = json;
+        }
+    }
+
+    public static final class CompressedEntityMapper implements EntityMapper<CompressedEntity> {
+
+        @Override
+        public int[] getColumnIndexes(BackendCursor cursor) {
+            return new int[]{
+                    cursor.getColumnIndex(EntitySchema.ID_COLUMN),
+                    cursor.getColumnIndex(TEXT_COLUMN_NAME),
+                    cursor.getColumnIndex(DATA_COLUMN_NAME),
+                    cursor.getColumnIndex(JSON_COLUMN_NAME)};
+        }
+
+        @Override
+        public CompressedEntity newObject() {
+            return new CompressedEntity(null, null, null);
+        }
+
+        @Override
+        public void readRow(BackendCursor cursor, int[] columnIndexes, CompressedEntity target) {
+            target.id = cursor.getLong(columnIndexes[0]);
+            target.text = cursor.isNull(columnIndexes[1]) ? null : cursor.getString(columnIndexes[1]);
+            target.data = cursor.isNull(columnIndexes[2]) ? null : cursor.getBlob(columnIndexes[2]);
+            target.json = cursor.isNull(columnIndexes[3]) ? null : cursor.getString(columnIndexes[3]);
+        }
+
+        @Override
+        public Map<String, Object> toValues(CompressedEntity obj) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put(EntitySchema.ID_COLUMN, obj.id);
+            values.put(TEXT_COLUMN_NAME, obj.text);
+            values.put(DATA_COLUMN_NAME, obj.data);
+            values.put(JSON_COLUMN_NAME, obj.json);
+            return values;
+        }
+
+        @Override
+        public long getId(CompressedEntity obj) {
+            return obj.id == null ? NO_ID : obj.id;
+        }
+
+        @Override
+        public void setId(CompressedEntity obj, long id) {
+            obj.id = id;
+        }
+    }
+}
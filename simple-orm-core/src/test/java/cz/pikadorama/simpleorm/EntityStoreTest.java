@@ -0,0 +1,397 @@
+package cz.pikadorama.simpleorm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.backend.JdbcStorageBackend;
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.dao.EntityMapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class EntityStoreTest {
+
+    public static final String NAME_COLUMN_NAME = "name";
+    public static final String DESCRIPTION_COLUMN_NAME = "description";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EntityStore store;
+    private Dao<StoreEntity> dao;
+
+    @Before
+    public void openStore() throws Exception {
+        store = EntityStore.open(new JdbcStorageBackend("jdbc:sqlite:" + folder.newFile("store.db").getAbsolutePath(), 2),
+                StoreEntity.class, StrictEntity.class, MirroredEntity.class);
+        dao = store.getDao(StoreEntity.class);
+    }
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
+    @Test
+    public void testCrud() {
+        StoreEntity entity = new StoreEntity("foo", "long text");
+        long id = dao.create(entity);
+        assertEquals(id, (long) entity.id);
+        assertEquals("long text", dao.getById(id).description);
+
+        entity.name = "bar";
+        dao.update(entity);
+        assertEquals("bar", dao.getById(id).name);
+
+        dao.delete(entity);
+        assertEquals(0, dao.findAll().size());
+        try {
+            dao.getById(id);
+            fail("Deleted object must not be found.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCreateAllWithMixedIds() {
+        StoreEntity first = new StoreEntity("first", null);
+        first.id = 100L;
+        StoreEntity second = new StoreEntity("second", null);
+        StoreEntity third = new StoreEntity("third", null);
+        third.id = 50L;
+        StoreEntity fourth = new StoreEntity("fourth", null);
+        // negative IDs are valid row IDs
+        StoreEntity fifth = new StoreEntity("fifth", null);
+        fifth.id = -1L;
+        dao.createAll(Arrays.asList(first, second, third, fourth, fifth));
+
+        assertEquals(Long.valueOf(-1), fifth.id);
+        assertEquals(5, new HashSet<>(Arrays.asList(first.id, second.id, third.id, fourth.id, fifth.id)).size());
+        for (StoreEntity entity : Arrays.asList(first, second, third, fourth, fifth)) {
+            assertEquals(entity.name, dao.getById(entity.id).name);
+        }
+    }
+
+    @Test
+    public void testLoadLazyColumns() {
+        List<StoreEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            entities.add(new StoreEntity("name" + i, "description" + i));
+        }
+        dao.createAll(entities);
+
+        long[] ids = new long[entities.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entities.get(i).id;
+        }
+        List<StoreEntity> loaded = dao.getByIds(ids);
+        assertEquals(entities.size(), loaded.size());
+        assertNull(loaded.get(0).description);
+
+        dao.loadLazyColumns(loaded);
+        for (StoreEntity entity : loaded) {
+            assertEquals(entity.name.replace("name", "description"), entity.description);
+        }
+    }
+
+    @Test
+    public void testUpdateKeepsUnloadedColumns() {
+        StoreEntity entity = new StoreEntity("foo", "long text");
+        long id = dao.create(entity);
+
+        StoreEntity listed = dao.findAll().get(0);
+        assertNull(listed.description);
+        listed.name = "bar";
+        dao.update(listed);
+        assertEquals("bar", dao.getById(id).name);
+        assertEquals("long text", dao.getById(id).description);
+
+        StoreEntity projected = dao.getById(id, new String[]{DESCRIPTION_COLUMN_NAME});
+        assertNull(projected.name);
+        projected.description = "short text";
+        dao.update(projected);
+        assertEquals("bar", dao.getById(id).name);
+        assertEquals("short text", dao.getById(id).description);
+    }
+
+    @Test
+    public void testUpdateWritesLoadedLazyColumns() {
+        long id = dao.create(new StoreEntity("foo", "long text"));
+
+        List<StoreEntity> listed = dao.findAll();
+        dao.loadLazyColumns(listed);
+        StoreEntity entity = listed.get(0);
+        assertEquals("long text", entity.description);
+        entity.description = null;
+        dao.update(entity);
+        assertNull(dao.getById(id).description);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLazyColumnNeedsTolerantMapping() {
+        store.getDao(StrictEntity.class);
+    }
+
+    @Test
+    public void testMirrorReturnsCopies() {
+        Dao<MirroredEntity> mirroredDao = store.getDao(MirroredEntity.class);
+        TableMirror<MirroredEntity> mirror = store.getMirror(MirroredEntity.class);
+        MirroredEntity entity = new MirroredEntity("foo");
+        mirroredDao.create(entity);
+
+        MirroredEntity copy = mirroredDao.getById(entity.id);
+        assertNotSame(mirror.getById(entity.id), copy);
+        assertNotSame(copy, mirroredDao.findAll().get(0));
+        copy.name = "bar";
+        assertEquals("foo", mirror.getById(entity.id).name);
+        assertEquals(1, mirror.findBy(NAME_COLUMN_NAME, "foo").size());
+
+        mirroredDao.update(copy);
+        assertEquals("bar", mirror.getById(entity.id).name);
+        assertEquals("bar", mirroredDao.getByIds(new long[]{entity.id}).get(0).name);
+    }
+
+    @Test
+    public void testMirrorReloadsAfterCommit() {
+        final Dao<MirroredEntity> mirroredDao = store.getDao(MirroredEntity.class);
+        final TableMirror<MirroredEntity> mirror = store.getMirror(MirroredEntity.class);
+
+        int sizeInTransaction = store.writeTransaction(new WriteTransaction<Integer>() {
+            @Override
+            public Integer execute() {
+                mirroredDao.create(new MirroredEntity("foo"));
+                mirroredDao.create(new MirroredEntity("bar"));
+                return mirror.size();
+            }
+        });
+        assertEquals(0, sizeInTransaction);
+        assertEquals(2, mirror.size());
+
+        try {
+            store.writeTransaction(new WriteTransaction<Void>() {
+                @Override
+                public Void execute() {
+                    mirroredDao.deleteAll();
+                    throw new IllegalStateException("rollback");
+                }
+            });
+            fail("Transaction must be rolled back.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(2, mirror.size());
+        mirror.reload();
+        assertEquals(2, mirror.size());
+    }
+
+    @Test
+    public void testMirrorReloadsWrittenRows() {
+        final Dao<MirroredEntity> mirroredDao = store.getDao(MirroredEntity.class);
+        TableMirror<MirroredEntity> mirror = store.getMirror(MirroredEntity.class);
+        final MirroredEntity first = new MirroredEntity("first");
+        final MirroredEntity second = new MirroredEntity("second");
+        final MirroredEntity third = new MirroredEntity("third");
+        mirroredDao.createAll(Arrays.asList(first, second, third));
+        assertEquals(3, mirror.size());
+
+        store.writeTransaction(new WriteTransaction<Void>() {
+            @Override
+            public Void execute() {
+                first.name = "changed";
+                mirroredDao.update(first);
+                mirroredDao.delete(second);
+                mirroredDao.create(new MirroredEntity("fourth"));
+                return null;
+            }
+        });
+        assertEquals(3, mirror.size());
+        assertEquals("changed", mirror.getById(first.id).name);
+        assertNull(mirror.getById(second.id));
+        assertEquals(third.id, mirror.findAll().get(1).id);
+        assertEquals(1, mirror.findBy(NAME_COLUMN_NAME, "fourth").size());
+        assertEquals(0, mirror.findBy(NAME_COLUMN_NAME, "first").size());
+    }
+
+    @DbTable(name = "StoreEntity", mappingClass = StoreEntityMapper.class)
+    private static final class StoreEntity {
+
+        @DbColumn(name = EntitySchema.ID_COLUMN, type = DbDataType.INTEGER, properties = "primary key")
+        private Long id;
+
+        @DbColumn(name = NAME_COLUMN_NAME, type = DbDataType.TEXT)
+        private String name;
+
+        @DbColumn(name = DESCRIPTION_COLUMN_NAME, type = DbDataType.TEXT, lazy = true)
+        private String description;
+
+        public StoreEntity(String name, String description) {
+            this.name = name;
+            this.description = description;
+        }
+    }
+
+    @DbTable(name = "StrictEntity", mappingClass = StrictEntityMapper.class)
+    private static final class StrictEntity {
+
+        @DbColumn(name = EntitySchema.ID_COLUMN, type = DbDataType.INTEGER, properties = "primary key")
+        private Long id;
+
+        @DbColumn(name = DESCRIPTION_COLUMN_NAME, type = DbDataType.TEXT, lazy = true)
+        private String description;
+    }
+
+    public static final class StrictEntityMapper implements EntityMapper<StrictEntity> {
+
+        @Override
+        public int[] getColumnIndexes(BackendCursor cursor) {
+            int descriptionIndex = cursor.getColumnIndex(DESCRIPTION_COLUMN_NAME);
+            if (descriptionIndex == -1) {
+                throw new IllegalStateException("Column " + DESCRIPTION_COLUMN_NAME + " is missing.");
+            }
+            return new int[]{cursor.getColumnIndex(EntitySchema.ID_COLUMN), descriptionIndex};
+        }
+
+        @Override
+        public StrictEntity newObject() {
+            return new StrictEntity();
+        }
+
+        @Override
+        public void readRow(BackendCursor cursor, int[] columnIndexes, StrictEntity target) {
+            target.id = cursor.getLong(columnIndexes[0]);
+            target.description = cursor.getString(columnIndexes[1]);
+        }
+
+        @Override
+        public Map<String, Object> toValues(StrictEntity obj) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put(EntitySchema.ID_COLUMN, obj.id);
+            values.put(DESCRIPTION_COLUMN_NAME, obj.description);
+            return values;
+        }
+
+        @Override
+        public long getId(StrictEntity obj) {
+            return obj.id == null ? NO_ID : obj.id;
+        }
+
+        @Override
+        public void setId(StrictEntity obj, long id) {
+            obj.id = id;
+        }
+    }
+
+    @DbTable(name = "MirroredEntity", mappingClass = MirroredEntityMapper.class, mirrored = true)
+    private static final class MirroredEntity {
+
+        @DbColumn(name = EntitySchema.ID_COLUMN, type = DbDataType.INTEGER, properties = "primary key")
+        private Long id;
+
+        @DbColumn(name = NAME_COLUMN_NAME, type = DbDataType.TEXT, mirrorIndex = true)
+        private String name;
+
+        public MirroredEntity(String name) {
+            this.name = name;
+        }
+    }
+
+    public static final class MirroredEntityMapper implements EntityMapper<MirroredEntity> {
+
+        @Override
+        public int[] getColumnIndexes(BackendCursor cursor) {
+            return new int[]{cursor.getColumnIndex(EntitySchema.ID_COLUMN), cursor.getColumnIndex(NAME_COLUMN_NAME)};
+        }
+
+        @Override
+        public MirroredEntity newObject() {
+            return new MirroredEntity(null);
+        }
+
+        @Override
+        public void readRow(BackendCursor cursor, int[] columnIndexes, MirroredEntity target) {
+            target.id = cursor.getLong(columnIndexes[0]);
+            target.name = cursor.getString(columnIndexes[1]);
+        }
+
+        @Override
+        public Map<String, Object> toValues(MirroredEntity obj) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put(EntitySchema.ID_COLUMN, obj.id);
+            values.put(NAME_COLUMN_NAME, obj.name);
+            return values;
+        }
+
+        @Override
+        public long getId(MirroredEntity obj) {
+            return obj.id == null ? NO_ID : obj.id;
+        }
+
+        @Override
+        public void setId(MirroredEntity obj, long id) {
+            obj.id = id;
+        }
+    }
+
+    public static final class StoreEntityMapper implements EntityMapper<StoreEntity> {
+
+        @Override
+        public int[] getColumnIndexes(BackendCursor cursor) {
+            return new int[]{
+                    cursor.getColumnIndex(EntitySchema.ID_COLUMN),
+                    cursor.getColumnIndex(NAME_COLUMN_NAME),
+                    cursor.getColumnIndex(DESCRIPTION_COLUMN_NAME)};
+        }
+
+        @Override
+        public StoreEntity newObject() {
+            return new StoreEntity(null, null);
+        }
+
+        @Override
+        public void readRow(BackendCursor cursor, int[] columnIndexes, StoreEntity target) {
+            target.id = cursor.getLong(columnIndexes[0]);
+            if (columnIndexes[1] != -1) {
+                target.name = cursor.getString(columnIndexes[1]);
+            }
+            if (columnIndexes[2] != -1) {
+                target.description = cursor.getString(columnIndexes[2]);
+            }
+        }
+
+        @Override
+        public Map<String, Object> toValues(StoreEntity obj) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put(EntitySchema.ID_COLUMN, obj.id);
+            values.put(NAME_COLUMN_NAME, obj.name);
+            values.put(DESCRIPTION_COLUMN_NAME, obj.description);
+            return values;
+        }
+
+        @Override
+        public long getId(StoreEntity obj) {
+            return obj.id == null ? NO_ID : obj.id;
+        }
+
+        @Override
+        public void setId(StoreEntity obj, long id) {
+            obj.id = id;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package cz.pikadorama.simpleorm.backend;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JdbcStorageBackendTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcStorageBackend backend;
+
+    @Before
+    public void openBackend() throws Exception {
+        backend = new JdbcStorageBackend("jdbc:sqlite:" + folder.newFile("test.db").getAbsolutePath(), 1);
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.execute("create table item (_id integer primary key, name text, payload blob, price real);");
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @After
+    public void closeBackend() {
+        backend.close();
+    }
+
+    @Test
+    public void testDuplicateColumnNames() {
+        BackendConnection connection = backend.acquireConnection(false);
+        try (BackendCursor cursor = connection.query("select 1 as a, 2 as a, 3 as b;")) {
+            assertEquals(3, cursor.getColumnCount());
+            assertEquals(0, cursor.getColumnIndex("a"));
+            assertEquals(2, cursor.getColumnIndex("b"));
+            assertEquals("a", cursor.getColumnName(1));
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Test
+    public void testTypesAndLongArgs() {
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.execute("insert into item values (?, ?, ?, ?);", 1, "foo", new byte[]{1, 2}, 1.5);
+            connection.execute("insert into item values (?, ?, ?, ?);", 2, null, null, null);
+            try (BackendCursor cursor = connection.queryLongArgs("select name, payload, price, _id from item where _id in (?, ?) order by _id;",
+                    new long[]{0, 1, 2}, 1, 2)) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(BackendCursor.TYPE_STRING, cursor.getType(0));
+                assertEquals(BackendCursor.TYPE_BLOB, cursor.getType(1));
+                assertEquals(BackendCursor.TYPE_FLOAT, cursor.getType(2));
+                assertEquals(BackendCursor.TYPE_INTEGER, cursor.getType(3));
+                assertTrue(cursor.moveToNext());
+                assertEquals(BackendCursor.TYPE_NULL, cursor.getType(0));
+                assertTrue(cursor.isNull(1));
+                assertFalse(cursor.moveToNext());
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Test
+    public void testNestedTransactionRollback() {
+        BackendConnection connection = backend.acquireConnection(true);
+        try {
+            connection.beginTransaction();
+            try {
+                connection.execute("insert into item (_id) values (1);");
+                connection.beginTransaction();
+                try {
+                    connection.execute("insert into item (_id) values (2);");
+                } finally {
+                    // not successful, rolls back the outer transaction as well
+                    connection.endTransaction();
+                }
+                connection.setTransactionSuccessful();
+            } finally {
+                connection.endTransaction();
+            }
+            try (BackendCursor cursor = connection.query("select count(*) from item;")) {
+                cursor.moveToNext();
+                assertEquals(0, cursor.getLong(0));
+            }
+        } finally {
+            backend.releaseConnection(connection);
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForReadConnections() throws Exception {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final long[] count = {-1};
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BackendConnection connection = backend.acquireConnection(false);
+                try {
+                    acquired.countDown();
+                    release.await();
+                    try (BackendCursor cursor = connection.query("select count(*) from item;")) {
+                        cursor.moveToNext();
+                        count[0] = cursor.getLong(0);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    backend.releaseConnection(connection);
+                }
+            }
+        });
+        reader.start();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                backend.close();
+            }
+        });
+        closer.start();
+        closer.join(200);
+        assertTrue(closer.isAlive());
+
+        release.countDown();
+        reader.join(10000);
+        closer.join(10000);
+        assertFalse(closer.isAlive());
+        assertEquals(0, count[0]);
+
+        try {
+            backend.acquireConnection(false);
+            fail("Closed backend must not hand out connections.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
@@ -14,29 +15,59 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import cz.pikadorama.simpleorm.annotation.DbColumn;
 import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.backend.AndroidStorageBackend;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
 import cz.pikadorama.simpleorm.dao.Dao;
 import cz.pikadorama.simpleorm.dao.DaoQueryHelper;
+import cz.pikadorama.simpleorm.dao.EntityMapper;
+import cz.pikadorama.simpleorm.dao.IndexedDaoQueryHelper;
+import cz.pikadorama.simpleorm.dao.RowVisitor;
+import cz.pikadorama.simpleorm.util.Strings;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(AndroidJUnit4.class)
 public class DatabaseSanityTest {
 
     public static final String DATABASE_NAME = "test.db";
+    public static final String ANALYZED_DATABASE_NAME = "test-analyzed.db";
+    public static final String STORE_DATABASE_NAME = "test-store.db";
+    public static final String MIRRORED_DATABASE_NAME = "test-mirrored.db";
+    public static final String MIGRATED_DATABASE_NAME = "test-migrated.db";
+    public static final String SNAPSHOT_DATABASE_NAME = "test-snapshot.db";
+    public static final String MIGRATED_TABLE_NAME = "MigratedEntityTable";
+    public static final String FLAG_COLUMN_NAME = "flag";
+    public static final String MAPPED_TABLE_NAME = "MappedEntityTable";
+    public static final String MIRRORED_TABLE_NAME = "MirroredEntityTable";
     public static final String TEXT_COLUMN_NAME = "text";
     public static final String TEST_TABLE_NAME = "TestEntityTable";
 
-    private static final Dao<TestEntity> dao = DaoManager.getDao(TestEntity.class);
+    private static Dao<TestEntity> dao;
 
     @BeforeClass
     public static void prepareDatabase() throws InstantiationException, IllegalAccessException {
         Context context = InstrumentationRegistry.getTargetContext();
         context.deleteDatabase(DATABASE_NAME);
         DbManager.registerHelper(new TestSQLiteHelper(context), TestEntity.class);
+        dao = DaoManager.getDao(TestEntity.class);
     }
 
     @Before
@@ -80,6 +111,18 @@ public class DatabaseSanityTest {
         assertEquals(entity, foundEntity);
     }
 
+    @Test
+    public void testGetByIds() {
+        TestEntity first = new TestEntity();
+        TestEntity second = new TestEntity();
+        dao.create(first);
+        dao.create(second);
+        dao.create(new TestEntity());
+
+        List<TestEntity> foundEntities = dao.getByIds(new long[]{first.getId(), second.getId()});
+        assertEquals(2, foundEntities.size());
+    }
+
     @Test
     public void testDeleteAll() {
         TestEntity entity = new TestEntity();
@@ -101,11 +144,411 @@ public class DatabaseSanityTest {
         assertEquals(2, twoEntities.size());
     }
 
+    @Test
+    public void testScanAll() {
+        dao.create(new TestEntity());
+        dao.create(new TestEntity());
+        dao.create(new TestEntity());
+
+        final TestEntity target = new TestEntity();
+        final int[] visited = {0};
+        int count = dao.scanAll(target, new RowVisitor<TestEntity>() {
+            @Override
+            public boolean visit(TestEntity row) {
+                assertSame(target, row);
+                return ++visited[0] < 2;
+            }
+        });
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void testProjection() {
+        TestEntity entity = new TestEntity();
+        entity.setText("bar");
+        dao.create(entity);
+
+        List<TestEntity> entities = dao.findAll(new String[]{BaseColumns._ID});
+        assertEquals(1, entities.size());
+        assertEquals("foo", entities.get(0).getText());
+
+        dao.loadLazyColumns(entities, TEXT_COLUMN_NAME);
+        assertEquals(entity, entities.get(0));
+    }
+
+    @Test
+    public void testUpdateAfterProjection() {
+        TestEntity entity = new TestEntity();
+        entity.setText("bar");
+        dao.create(entity);
+
+        List<TestEntity> entities = dao.findAll(new String[]{BaseColumns._ID});
+        dao.update(entities.get(0));
+        assertEquals("bar", dao.getById(entity.getId()).getText());
+
+        dao.loadLazyColumns(entities, TEXT_COLUMN_NAME);
+        entities.get(0).setText("baz");
+        dao.update(entities.get(0));
+        assertEquals("baz", dao.getById(entity.getId()).getText());
+    }
+
+    @Test
+    public void testReadTransaction() {
+        final TestEntity entity = new TestEntity();
+        dao.create(entity);
+        dao.create(new TestEntity());
+
+        int size = DbManager.readTransaction(new ReadTransaction<Integer>() {
+            @Override
+            public Integer execute() {
+                assertEquals(entity, dao.getById(entity.getId()));
+                return dao.findAll().size();
+            }
+        });
+        assertEquals(2, size);
+    }
+
+    @Test
+    public void testReadTransactionDoesNotSeeConcurrentWrite() throws InstantiationException, IllegalAccessException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(SNAPSHOT_DATABASE_NAME);
+        TestSQLiteHelper helper = new TestSQLiteHelper(context, SNAPSHOT_DATABASE_NAME);
+        helper.setWriteAheadLoggingEnabled(true);
+        final Database database = Database.open(new DatabaseConfig.Builder(helper)
+                .entities(TestEntity.class)
+                .build());
+        try {
+            final Dao<TestEntity> snapshotDao = database.getDao(TestEntity.class);
+            snapshotDao.create(new TestEntity());
+
+            List<Integer> sizes = database.readTransaction(new ReadTransaction<List<Integer>>() {
+                @Override
+                public List<Integer> execute() {
+                    int before = snapshotDao.findAll().size();
+                    try {
+                        database.submitWrite(new Callable<Long>() {
+                            @Override
+                            public Long call() {
+                                return snapshotDao.create(new TestEntity());
+                            }
+                        }).get(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return Arrays.asList(before, snapshotDao.findAll().size());
+                }
+            });
+            assertEquals(Arrays.asList(1, 1), sizes);
+            assertEquals(2, snapshotDao.findAll().size());
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testWriteTransactionRunsOnWriterThread() {
+        String threadName = DbManager.writeTransaction(new WriteTransaction<String>() {
+            @Override
+            public String execute() {
+                dao.create(new TestEntity());
+                return Thread.currentThread().getName();
+            }
+        });
+        assertEquals("simple-orm-writer-" + DATABASE_NAME, threadName);
+        assertEquals(1, dao.findAll().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteInReadTransaction() {
+        DbManager.readTransaction(new ReadTransaction<Void>() {
+            @Override
+            public Void execute() {
+                dao.create(new TestEntity());
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testQueryPlanAnalyzer() throws InstantiationException, IllegalAccessException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(ANALYZED_DATABASE_NAME);
+        QueryPlanAnalyzer analyzer = new QueryPlanAnalyzer();
+        Database database = Database.open(new DatabaseConfig.Builder(new TestSQLiteHelper(context, ANALYZED_DATABASE_NAME))
+                .entities(TestEntity.class)
+                .queryPlanAnalyzer(analyzer)
+                .build());
+        try {
+            Dao<TestEntity> analyzedDao = database.getDao(TestEntity.class);
+            analyzedDao.getByIds(new long[]{1, 2});
+            analyzedDao.findAll();
+
+            QueryPlanReport report = analyzer.getReport();
+            assertEquals(2, report.getPlans().size());
+            assertEquals(1, report.getFullScans().size());
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testMaintenance() {
+        for (int i = 0; i < 100; i++) {
+            dao.create(new TestEntity());
+        }
+        dao.deleteAll();
+
+        MaintenanceReport report = DbManager.getDatabase().runMaintenance();
+        assertSame(report, DbManager.getDatabase().getLastMaintenanceReport());
+    }
+
+    @Test
+    public void testWarmup() throws InterruptedException {
+        dao.create(new TestEntity());
+        Database database = DbManager.getDatabase();
+        long lastActivity = database.getLastActivity();
+
+        Warmup warmup = database.warmUp(TEST_TABLE_NAME, "no_such_index");
+        assertTrue(warmup.await(10, TimeUnit.SECONDS));
+
+        assertNull(warmup.getError());
+        assertTrue(warmup.getTotalMillis() >= warmup.getDaoCreationMillis() + warmup.getStatementCompilationMillis());
+        // an unknown name is skipped, the rest of the warmup goes on
+        assertEquals(Arrays.asList(TEST_TABLE_NAME, "no_such_index"),
+                new ArrayList<>(warmup.getPreloadMillis().keySet()));
+        assertEquals(lastActivity, database.getLastActivity());
+    }
+
+    @Test
+    public void testEntityStore() throws InstantiationException, IllegalAccessException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(STORE_DATABASE_NAME);
+        EntityStore store = EntityStore.open(new AndroidStorageBackend(new TestSQLiteHelper(context, STORE_DATABASE_NAME)),
+                MappedEntity.class);
+        try {
+            Dao<MappedEntity> storeDao = store.getDao(MappedEntity.class);
+            List<MappedEntity> entities = Arrays.asList(new MappedEntity("foo"), new MappedEntity("bar"));
+            storeDao.createAll(entities);
+
+            assertEquals("bar", storeDao.getById(entities.get(1).id).text);
+            assertEquals(2, storeDao.findAll().size());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testMirror() throws InstantiationException, IllegalAccessException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(MIRRORED_DATABASE_NAME);
+        Database database = Database.open(new DatabaseConfig.Builder(new TestSQLiteHelper(context, MIRRORED_DATABASE_NAME))
+                .entities(MirroredEntity.class)
+                .build());
+        try {
+            final Dao<MirroredEntity> mirroredDao = database.getDao(MirroredEntity.class);
+            MirroredEntity entity = new MirroredEntity("foo");
+            mirroredDao.create(entity);
+            mirroredDao.create(new MirroredEntity("bar"));
+
+            TableMirror<MirroredEntity> mirror = database.getMirror(MirroredEntity.class);
+            assertEquals(2, mirror.size());
+            assertEquals(1, mirror.findBy(TEXT_COLUMN_NAME, "bar").size());
+
+            // the DAO returns copies, changing them does not change the mirror
+            MirroredEntity copy = mirroredDao.getById(entity.id);
+            assertNotSame(mirror.getById(entity.id), copy);
+            copy.text = "baz";
+            assertEquals("foo", mirror.getById(entity.id).text);
+            mirroredDao.update(copy);
+            assertEquals("baz", mirror.getById(entity.id).text);
+
+            // rolled back writes do not reach the mirror
+            try {
+                database.writeTransaction(new WriteTransaction<Void>() {
+                    @Override
+                    public Void execute() {
+                        mirroredDao.deleteAll();
+                        throw new IllegalStateException("rollback");
+                    }
+                });
+                fail("Transaction must be rolled back.");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(2, mirror.size());
+
+            mirroredDao.delete(entity);
+            assertEquals(1, mirroredDao.findAll().size());
+            assertEquals(1, mirror.size());
+
+            // a transaction begun directly on SQLiteDatabase delays the reload until it ends
+            SQLiteDatabase db = database.getHelper().getWritableDatabase();
+            db.beginTransaction();
+            try {
+                mirroredDao.create(new MirroredEntity("qux"));
+                assertEquals(1, mirror.size());
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            mirroredDao.query("select * from " + MIRRORED_TABLE_NAME, null);
+            assertEquals(2, mirror.size());
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testMigrationAddsColumnInPlace() throws InstantiationException, IllegalAccessException {
+        Database database = openMigratedDatabase(true, MigratedEntity.class);
+        insertMigratedRows(database, 3);
+        database.close();
+
+        database = openMigratedDatabase(false, MigratedEntityWithFlag.class);
+        try {
+            assertFalse(database.isMigrating());
+            assertEquals(7, queryLong(database, "select " + FLAG_COLUMN_NAME + " from " + MIGRATED_TABLE_NAME
+                    + " where " + BaseColumns._ID + " = 1"));
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testMigrationRebuildsTableWithoutRemovedColumn() throws Exception {
+        Database database = openMigratedDatabase(true, MigratedEntityWithFlag.class);
+        insertMigratedRows(database, 5);
+        database.close();
+
+        database = openMigratedDatabase(false, MigratedEntity.class);
+        try {
+            assertTrue(database.awaitMigrations(10, TimeUnit.SECONDS));
+            assertEquals(5, queryLong(database, "select count(*) from " + MIGRATED_TABLE_NAME));
+            try (Cursor cursor = database.getHelper().getReadableDatabase().rawQuery(
+                    "select * from " + MIGRATED_TABLE_NAME + " limit 0", null)) {
+                assertEquals(-1, cursor.getColumnIndex(FLAG_COLUMN_NAME));
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testMigrationResumesFromCheckpoint() throws Exception {
+        Database database = openMigratedDatabase(true, MigratedEntityWithFlag.class);
+        insertMigratedRows(database, 6);
+
+        // state of a rebuild interrupted after the first three rows
+        SQLiteDatabase db = database.getHelper().getWritableDatabase();
+        String rebuildTable = MIGRATED_TABLE_NAME + SchemaMigrator.REBUILD_TABLE_SUFFIX;
+        db.execSQL(EntitySchema.composeCreateTableSql(rebuildTable, MigratedEntity.class));
+        db.execSQL("insert into " + rebuildTable + " select " + BaseColumns._ID + ", 'copied' from "
+                + MIGRATED_TABLE_NAME + " where " + BaseColumns._ID + " <= 3");
+        ContentValues checkpoint = new ContentValues();
+        checkpoint.put("table_name", MIGRATED_TABLE_NAME);
+        checkpoint.put("last_id", 3);
+        checkpoint.put("columns", Strings.join(EntitySchema.getColumnNames(MigratedEntity.class)));
+        db.insert(SchemaMigrator.MIGRATIONS_TABLE, null, checkpoint);
+        database.close();
+
+        database = openMigratedDatabase(false, MigratedEntity.class);
+        try {
+            assertTrue(database.awaitMigrations(10, TimeUnit.SECONDS));
+            assertEquals(3, queryLong(database, "select count(*) from " + MIGRATED_TABLE_NAME
+                    + " where " + TEXT_COLUMN_NAME + " = 'copied'"));
+            assertEquals(3, queryLong(database, "select count(*) from " + MIGRATED_TABLE_NAME
+                    + " where " + TEXT_COLUMN_NAME + " = 'original'"));
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testMigrationFailureDropsRebuild() throws Exception {
+        Database database = openMigratedDatabase(true, MigratedEntity.class);
+        insertMigratedRows(database, 3);
+        database.close();
+
+        // the rows get the same default value, which violates the unique constraint
+        database = openMigratedDatabase(false, MigratedEntityWithUniqueFlag.class);
+        try {
+            assertTrue(database.awaitMigrations(10, TimeUnit.SECONDS));
+            assertTrue(database.getMigrationErrors().containsKey(MIGRATED_TABLE_NAME));
+            assertEquals(0, queryLong(database, "select count(*) from sqlite_master where name like '"
+                    + MIGRATED_TABLE_NAME + "_simple_orm%'"));
+            assertEquals(0, queryLong(database, "select count(*) from " + SchemaMigrator.MIGRATIONS_TABLE));
+
+            database.getHelper().getWritableDatabase().execSQL("insert into " + MIGRATED_TABLE_NAME
+                    + " (" + TEXT_COLUMN_NAME + ", " + FLAG_COLUMN_NAME + ") values ('new', 8)");
+            assertEquals(4, queryLong(database, "select count(*) from " + MIGRATED_TABLE_NAME));
+        } finally {
+            database.close();
+        }
+
+        database = openMigratedDatabase(false, MigratedEntityWithUniqueFlag.class);
+        try {
+            assertFalse(database.isMigrating());
+            assertTrue(database.getMigrationErrors().isEmpty());
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testMigrationRejectsNotNullColumnWithoutDefault() throws InstantiationException, IllegalAccessException {
+        Database database = openMigratedDatabase(true, MigratedEntity.class);
+        insertMigratedRows(database, 2);
+        database.close();
+
+        try {
+            openMigratedDatabase(false, MigratedEntityWithRequiredFlag.class);
+            fail("NOT NULL column without default value must be rejected.");
+        } catch (IllegalArgumentException expected) {
+            // original table is kept
+        }
+
+        database = openMigratedDatabase(false, MigratedEntity.class);
+        try {
+            assertFalse(database.isMigrating());
+            assertEquals(2, queryLong(database, "select count(*) from " + MIGRATED_TABLE_NAME));
+        } finally {
+            database.close();
+        }
+    }
+
+    private static Database openMigratedDatabase(boolean recreate, Class<?> entityClass)
+            throws InstantiationException, IllegalAccessException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        if (recreate) {
+            context.deleteDatabase(MIGRATED_DATABASE_NAME);
+        }
+        return Database.open(new DatabaseConfig.Builder(new TestSQLiteHelper(context, MIGRATED_DATABASE_NAME))
+                .entities(entityClass)
+                .migrationBatchSize(2)
+                .build());
+    }
+
+    private static void insertMigratedRows(Database database, int count) {
+        SQLiteDatabase db = database.getHelper().getWritableDatabase();
+        for (int i = 0; i < count; i++) {
+            db.execSQL("insert into " + MIGRATED_TABLE_NAME + " (" + TEXT_COLUMN_NAME + ") values ('original')");
+        }
+    }
+
+    private static long queryLong(Database database, String sql) {
+        SQLiteStatement statement = database.getHelper().getReadableDatabase().compileStatement(sql);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
     @DbTable(name = TEST_TABLE_NAME, mappingClass = TestEntityQueryHelper.class)
     private static final class TestEntity {
 
         @DbColumn(name = BaseColumns._ID, type = DbDataType.INTEGER, properties = "primary key autoincrement")
-        private Integer id;
+        private Long id;
 
         @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT)
         private String text;
@@ -114,16 +557,16 @@ public class DatabaseSanityTest {
             this.text = "foo";
         }
 
-        public TestEntity(Integer id, String text) {
+        public TestEntity(Long id, String text) {
             this.id = id;
             this.text = text;
         }
 
-        public Integer getId() {
+        public Long getId() {
             return id;
         }
 
-        public void setId(Integer id) {
+        public void setId(Long id) {
             this.id = id;
         }
 
@@ -154,15 +597,35 @@ public class DatabaseSanityTest {
         }
     }
 
-    public static final class TestEntityQueryHelper implements DaoQueryHelper<TestEntity> {
+    public static final class TestEntityQueryHelper implements IndexedDaoQueryHelper<TestEntity> {
 
         @Override
         public TestEntity cursorToObject(Cursor cursor) {
-            Integer id = cursor.getInt(cursor.getColumnIndexOrThrow(BaseColumns._ID));
+            Long id = cursor.getLong(cursor.getColumnIndexOrThrow(BaseColumns._ID));
             String text = cursor.getString(cursor.getColumnIndexOrThrow(TEXT_COLUMN_NAME));
             return new TestEntity(id, text);
         }
 
+        @Override
+        public int[] getColumnIndexes(Cursor cursor) {
+            return new int[]{
+                    cursor.getColumnIndexOrThrow(BaseColumns._ID),
+                    cursor.getColumnIndex(TEXT_COLUMN_NAME)};
+        }
+
+        @Override
+        public TestEntity newObject() {
+            return new TestEntity();
+        }
+
+        @Override
+        public void cursorToObject(Cursor cursor, int[] columnIndexes, TestEntity target) {
+            target.setId(cursor.getLong(columnIndexes[0]));
+            if (columnIndexes[1] != -1) {
+                target.setText(cursor.getString(columnIndexes[1]));
+            }
+        }
+
         @Override
         public ContentValues objectToContentValues(TestEntity obj) {
             ContentValues cv = new ContentValues();
@@ -172,20 +635,184 @@ public class DatabaseSanityTest {
         }
 
         @Override
-        public Integer getId(TestEntity obj) {
-            return obj.getId();
+        public long getId(TestEntity obj) {
+            return obj.getId() == null ? NO_ID : obj.getId();
         }
 
         @Override
-        public void setId(TestEntity obj, Integer id) {
+        public void setId(TestEntity obj, long id) {
             obj.setId(id);
         }
     }
 
+    @DbTable(name = MAPPED_TABLE_NAME, mappingClass = MappedEntityMapper.class)
+    private static final class MappedEntity {
+
+        @DbColumn(name = BaseColumns._ID, type = DbDataType.INTEGER, properties = "primary key autoincrement")
+        private Long id;
+
+        @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT)
+        private String text;
+
+        public MappedEntity(String text) {
+            this.text = text;
+        }
+    }
+
+    public static final class MappedEntityMapper implements EntityMapper<MappedEntity> {
+
+        @Override
+        public int[] getColumnIndexes(BackendCursor cursor) {
+            return new int[]{
+                    cursor.getColumnIndex(BaseColumns._ID),
+                    cursor.getColumnIndex(TEXT_COLUMN_NAME)};
+        }
+
+        @Override
+        public MappedEntity newObject() {
+            return new MappedEntity(null);
+        }
+
+        @Override
+        public void readRow(BackendCursor cursor, int[] columnIndexes, MappedEntity target) {
+            target.id = cursor.getLong(columnIndexes[0]);
+            if (columnIndexes[1] != -1) {
+                target.text = cursor.getString(columnIndexes[1]);
+            }
+        }
+
+        @Override
+        public Map<String, Object> toValues(MappedEntity obj) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put(BaseColumns._ID, obj.id);
+            values.put(TEXT_COLUMN_NAME, obj.text);
+            return values;
+        }
+
+        @Override
+        public long getId(MappedEntity obj) {
+            return obj.id == null ? DaoQueryHelper.NO_ID : obj.id;
+        }
+
+        @Override
+        public void setId(MappedEntity obj, long id) {
+            obj.id = id;
+        }
+    }
+
+    @DbTable(name = MIRRORED_TABLE_NAME, mappingClass = MirroredEntityMapper.class, mirrored = true)
+    private static final class MirroredEntity {
+
+        @DbColumn(name = BaseColumns._ID, type = DbDataType.INTEGER, properties = "primary key autoincrement")
+        private Long id;
+
+        @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT, mirrorIndex = true)
+        private String text;
+
+        public MirroredEntity(String text) {
+            this.text = text;
+        }
+    }
+
+    public static final class MirroredEntityMapper implements EntityMapper<MirroredEntity> {
+
+        @Override
+        public int[] getColumnIndexes(BackendCursor cursor) {
+            return new int[]{
+                    cursor.getColumnIndex(BaseColumns._ID),
+                    cursor.getColumnIndex(TEXT_COLUMN_NAME)};
+        }
+
+        @Override
+        public MirroredEntity newObject() {
+            return new MirroredEntity(null);
+        }
+
+        @Override
+        public void readRow(BackendCursor cursor, int[] columnIndexes, MirroredEntity target) {
+            target.id = cursor.getLong(columnIndexes[0]);
+            target.text = cursor.getString(columnIndexes[1]);
+        }
+
+        @Override
+        public Map<String, Object> toValues(MirroredEntity obj) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put(BaseColumns._ID, obj.id);
+            values.put(TEXT_COLUMN_NAME, obj.text);
+            return values;
+        }
+
+        @Override
+        public long getId(MirroredEntity obj) {
+            return obj.id == null ? DaoQueryHelper.NO_ID : obj.id;
+        }
+
+        @Override
+        public void setId(MirroredEntity obj, long id) {
+            obj.id = id;
+        }
+    }
+
+    /**
+     * Versions of one table used by the migration tests, they are only read by raw SQL.
+     */
+    @DbTable(name = MIGRATED_TABLE_NAME, mappingClass = TestEntityQueryHelper.class)
+    private static final class MigratedEntity {
+
+        @DbColumn(name = BaseColumns._ID, type = DbDataType.INTEGER, properties = "primary key autoincrement")
+        private Long id;
+
+        @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT)
+        private String text;
+    }
+
+    @DbTable(name = MIGRATED_TABLE_NAME, mappingClass = TestEntityQueryHelper.class)
+    private static final class MigratedEntityWithFlag {
+
+        @DbColumn(name = BaseColumns._ID, type = DbDataType.INTEGER, properties = "primary key autoincrement")
+        private Long id;
+
+        @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT)
+        private String text;
+
+        @DbColumn(name = FLAG_COLUMN_NAME, type = DbDataType.INTEGER, properties = "not null default 7")
+        private int flag;
+    }
+
+    @DbTable(name = MIGRATED_TABLE_NAME, mappingClass = TestEntityQueryHelper.class)
+    private static final class MigratedEntityWithRequiredFlag {
+
+        @DbColumn(name = BaseColumns._ID, type = DbDataType.INTEGER, properties = "primary key autoincrement")
+        private Long id;
+
+        @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT)
+        private String text;
+
+        @DbColumn(name = FLAG_COLUMN_NAME, type = DbDataType.INTEGER, properties = "not null")
+        private int flag;
+    }
+
+    @DbTable(name = MIGRATED_TABLE_NAME, mappingClass = TestEntityQueryHelper.class)
+    private static final class MigratedEntityWithUniqueFlag {
+
+        @DbColumn(name = BaseColumns._ID, type = DbDataType.INTEGER, properties = "primary key autoincrement")
+        private Long id;
+
+        @DbColumn(name = TEXT_COLUMN_NAME, type = DbDataType.TEXT)
+        private String text;
+
+        @DbColumn(name = FLAG_COLUMN_NAME, type = DbDataType.INTEGER, properties = "unique default 7")
+        private int flag;
+    }
+
     private static final class TestSQLiteHelper extends SQLiteOpenHelper {
 
         public TestSQLiteHelper(Context context) {
-            super(context, DATABASE_NAME, null, 1);
+            this(context, DATABASE_NAME);
+        }
+
+        public TestSQLiteHelper(Context context, String name) {
+            super(context, name, null, 1);
         }
 
         @Override
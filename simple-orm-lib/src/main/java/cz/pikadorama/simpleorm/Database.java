@@ -0,0 +1,571 @@
+package cz.pikadorama.simpleorm;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.backend.AndroidStorageBackend;
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.StorageBackend;
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.util.Const;
+
+/**
+ * Single database file with its own tables, DAOs and writer thread running the DAO writes.
+ * Create it by {@link #open(DatabaseConfig)}. Several instances can be used at the same time, e.g. one
+ * database per account or write-heavy tables in their own file so they do not wait for each
+ * other's write lock. See {@link DatabaseRouter} for placing entities into multiple databases.
+ *
+ * DAOs, mirrors and column compression are provided by an {@link EntityStore} over the
+ * {@link SQLiteOpenHelper}, the database adds schema migrations, read transactions, warmup and
+ * maintenance.
+ *
+ * {@link DbManager} and {@link DaoManager} work with the default instance created by
+ * {@link DbManager#registerHelper(SQLiteOpenHelper, Class[])}.
+ */
+public final class Database {
+
+    /**
+     * {@code SQLiteDatabase#beginTransactionReadOnly()} is available since Android 15.
+     */
+    private static final int READ_ONLY_TRANSACTION_SDK = 35;
+    private static final String READ_SAVEPOINT = "simple_orm_read";
+
+    private final SQLiteOpenHelper helper;
+    private final ThreadLocal<SQLiteDatabase> readTransactionDatabase = new ThreadLocal<>();
+    // read-only handles of the database file for read transactions before Android 15
+    private final Queue<SQLiteDatabase> idleReadHandles = new ArrayDeque<>();
+    // set on threads whose database access is not user activity (warmup)
+    private final ThreadLocal<Boolean> backgroundAccess = new ThreadLocal<>();
+    private final SchemaMigrator migrator;
+    private final QueryPlanAnalyzer queryPlanAnalyzer;
+    private final DatabaseMaintenance maintenance;
+
+    private final ConcurrentMap<Class<?>, Dao<?>> writerDaos = new ConcurrentHashMap<>();
+
+    private volatile EntityStore store = null;
+    private ExecutorService writeExecutor = null;
+    private volatile Thread writerThread = null;
+    private volatile long lastActivity = SystemClock.elapsedRealtime();
+    private boolean closed = false;
+
+    private Database(DatabaseConfig config) {
+        this.helper = config.getHelper();
+        this.migrator = new SchemaMigrator(helper.getWritableDatabase(), config.getMigrationBatchSize());
+        this.queryPlanAnalyzer = config.getQueryPlanAnalyzer();
+
+        MaintenancePolicy maintenancePolicy = config.getMaintenancePolicy();
+        this.maintenance = new DatabaseMaintenance(this,
+                maintenancePolicy != null ? maintenancePolicy : new MaintenancePolicy.Builder().build());
+    }
+
+    /**
+     * Opens the database described by the given configuration. Whole database structure is
+     * created and migrated before this method returns (except table rebuilds running in the
+     * background, see {@link #awaitMigrations(long, TimeUnit)}).
+     *
+     * @param config database configuration
+     * @return database instance
+     */
+    public static Database open(DatabaseConfig config) throws InstantiationException, IllegalAccessException {
+        Database database = new Database(config);
+        List<Class<?>> entityClasses = config.getEntityClasses();
+        try {
+            database.initDatabase(entityClasses.toArray(new Class<?>[entityClasses.size()]));
+        } catch (RuntimeException e) {
+            database.close();
+            throw e;
+        }
+        if (config.getMaintenancePolicy() != null) {
+            database.maintenance.start();
+        }
+        return database;
+    }
+
+    /**
+     * @return {@link SQLiteOpenHelper} of this database
+     */
+    public SQLiteOpenHelper getHelper() {
+        return helper;
+    }
+
+    /**
+     * Register DAO for the given DAO type. Overrides any DAO of the same type registered before.
+     *
+     * @param daoType DAO type
+     * @param dao     DAO implementation
+     */
+    public void registerDao(Class<?> daoType, Dao<?> dao) {
+        store.registerDao(daoType, dao);
+        writerDaos.remove(daoType);
+    }
+
+    /**
+     * Get DAO implementation for the given DAO type. The default implementation is created on
+     * the first call unless other DAO was registered by {@link #registerDao(Class, Dao)}. The
+     * default DAO of a {@link DbTable#mirrored()} table loads the table into its
+     * {@link TableMirror} when it is created.
+     *
+     * Writes of the returned DAO run on the writer thread of this database, the calling thread
+     * waits for them. Writes called on the writer thread, inside a transaction of the calling
+     * thread or inside {@link #readTransaction(ReadTransaction)} run right away on the calling
+     * thread.
+     *
+     * @param daoType DAO type
+     * @return DAO implementation
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Dao<T> getDao(Class<T> daoType) {
+        Dao<T> dao = (Dao<T>) writerDaos.get(daoType);
+        if (dao == null) {
+            dao = new WriterDao<>(this, store.getDao(daoType));
+            Dao<T> previous = (Dao<T>) writerDaos.putIfAbsent(daoType, dao);
+            if (previous != null) {
+                dao = previous;
+            }
+        }
+        return dao;
+    }
+
+    /**
+     * Returns in-memory mirror of a {@link DbTable#mirrored()} table, e.g. to find rows by
+     * the {@link cz.pikadorama.simpleorm.annotation.DbColumn#mirrorIndex()} columns. The
+     * mirror is loaded with the default DAO of the entity.
+     *
+     * @param entityClass entity class
+     * @return mirror of the entity table
+     * @throws IllegalArgumentException if the table is not mirrored
+     */
+    public <T> TableMirror<T> getMirror(Class<T> entityClass) {
+        return store.getMirror(entityClass);
+    }
+
+    /**
+     * Runs the given reads in a single read-only transaction, so all DAO calls of this database
+     * made by the transaction on the calling thread see the same consistent state and share
+     * one connection. Nested calls join the outer transaction. Writes are not allowed inside
+     * the transaction.
+     *
+     * The transaction is deferred, it does not take the write lock and its snapshot is taken by
+     * the first read. Android 15 and newer run it by {@code beginTransactionReadOnly()}, older
+     * versions can only begin transactions holding the write lock, so there it runs on a
+     * separate read-only handle of the database file. With write-ahead logging enabled the
+     * transaction does not block writers and does not see their commits, without it writers
+     * wait until the transaction ends. In-memory databases have no other handle, there the
+     * transaction holds the write lock.
+     *
+     * @param transaction reads to run
+     * @return result of the transaction
+     */
+    public <R> R readTransaction(ReadTransaction<R> transaction) {
+        if (readTransactionDatabase.get() != null) {
+            return transaction.execute();
+        }
+
+        SQLiteDatabase db = helper.getReadableDatabase();
+        if (beginHelperTransaction(db)) {
+            readTransactionDatabase.set(db);
+            try {
+                R result = transaction.execute();
+                db.setTransactionSuccessful();
+                return result;
+            } finally {
+                readTransactionDatabase.remove();
+                db.endTransaction();
+            }
+        }
+
+        db = acquireReadHandle();
+        try {
+            // SAVEPOINT outside of a transaction begins a deferred one, BEGIN would be turned
+            // into BEGIN EXCLUSIVE by SQLiteDatabase
+            db.execSQL("savepoint " + READ_SAVEPOINT);
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+        readTransactionDatabase.set(db);
+        try {
+            return transaction.execute();
+        } finally {
+            readTransactionDatabase.remove();
+            endReadTransaction(db);
+        }
+    }
+
+    /**
+     * Runs the given writes in a single transaction on the writer thread of this database and
+     * waits for them, see {@link EntityStore#writeTransaction(WriteTransaction)} and
+     * {@link #getDao(Class)}. Group DAO writes by this method rather than by
+     * {@code SQLiteDatabase#beginTransaction()}, mirrors of the written tables are then
+     * reloaded only after the commit. Not allowed inside {@link #readTransaction(ReadTransaction)}.
+     *
+     * @param transaction writes to run
+     * @return result of the transaction
+     */
+    public <R> R writeTransaction(final WriteTransaction<R> transaction) {
+        return executeWrite(new WriteTransaction<R>() {
+            @Override
+            public R execute() {
+                return store.writeTransaction(transaction);
+            }
+        });
+    }
+
+    /**
+     * Submits a task to the writer thread of this database without waiting for it. Each
+     * database has its own writer thread, so writes to different databases run in parallel
+     * while writes to the same database are serialized without contending for its lock. DAO
+     * writes and {@link #writeTransaction(WriteTransaction)} run on the writer thread as well.
+     *
+     * @param task task to run
+     * @return future with the task result
+     */
+    public synchronized <R> Future<R> submitWrite(Callable<R> task) {
+        if (closed) {
+            throw new IllegalStateException("Database " + helper.getDatabaseName() + " is closed.");
+        }
+        if (writeExecutor == null) {
+            final String threadName = "simple-orm-writer-" + helper.getDatabaseName();
+            writeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    writerThread = new Thread(runnable, threadName);
+                    return writerThread;
+                }
+            });
+        }
+        return writeExecutor.submit(task);
+    }
+
+    /**
+     * Starts warmup of this database on a background thread, see {@link Warmup}. Call it right
+     * after the database is opened so the first real queries do not pay for creating DAOs,
+     * compiling statements and reading pages from the disk.
+     *
+     * @param preloadNames names of the tables and indexes to read into the page cache
+     * @return handle to wait for the warmup and read its timings
+     */
+    public Warmup warmUp(String... preloadNames) {
+        final Warmup warmup = new Warmup(this, preloadNames);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                backgroundAccess.set(Boolean.TRUE);
+                warmup.execute();
+            }
+        }, "simple-orm-warmup-" + helper.getDatabaseName());
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return warmup;
+    }
+
+    /**
+     * Runs the database maintenance right away on the calling thread, regardless of the idle
+     * time. Uses the default {@link MaintenancePolicy} thresholds if no policy was configured.
+     *
+     * @return metrics of the run
+     */
+    public MaintenanceReport runMaintenance() {
+        return maintenance.runMaintenance();
+    }
+
+    /**
+     * @return metrics of the last maintenance run or null if there was none yet
+     */
+    public MaintenanceReport getLastMaintenanceReport() {
+        return maintenance.getLastReport();
+    }
+
+    /**
+     * Trains a new compression dictionary for the {@link DbCompression#DEFLATE_DICTIONARY}
+     * columns of the given entity from its most recent rows and stores it in the database.
+     * Values written from now on use the new dictionary, values written before stay readable.
+     * Train it once the table holds representative data and again when the data changes
+     * its shape.
+     *
+     * @param entityClass entity class
+     * @return ID of the new dictionary, 0 if the table has no values to train from
+     * @throws IllegalArgumentException if the entity has no dictionary compressed column
+     */
+    public int trainCompressionDictionary(Class<?> entityClass) {
+        return store.trainCompressionDictionary(entityClass);
+    }
+
+    /**
+     * @return compression statistics of all compressed columns, by "table.column"
+     */
+    public Map<String, CompressionStats> getCompressionStats() {
+        return store.getCompressionStats();
+    }
+
+    /**
+     * Returns whether there is a table rebuild still running in the background. DAOs can be
+     * used during the migration, they work with the original table until the rebuilt one
+     * replaces it.
+     *
+     * @return true if a migration is in progress
+     */
+    public boolean isMigrating() {
+        return migrator.isMigrating();
+    }
+
+    /**
+     * Returns errors of the background table rebuilds which failed since the database was
+     * opened, e.g. because an existing row violates the new constraints. A failed rebuild is
+     * dropped and the original table is kept, it is not retried on the next start. The table
+     * keeps the new columns added to it in place, without their constraints.
+     *
+     * @return errors by table name, empty if no rebuild failed
+     */
+    public Map<String, RuntimeException> getMigrationErrors() {
+        return migrator.getErrors();
+    }
+
+    /**
+     * Blocks until all background table rebuilds finish or the timeout elapses.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    time unit of the timeout
+     * @return true if there is no migration in progress, false if the timeout elapsed
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitMigrations(long timeout, TimeUnit unit) throws InterruptedException {
+        return migrator.awaitMigrations(timeout, unit);
+    }
+
+    /**
+     * Stops the writer thread after the already submitted writes, stops the maintenance and
+     * background table rebuilds and closes the database. A rebuild is stopped after its current
+     * batch and resumed on the next start.
+     */
+    public synchronized void close() {
+        closed = true;
+        maintenance.stop();
+        migrator.shutdown();
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+            writeExecutor = null;
+        }
+        for (SQLiteDatabase db : idleReadHandles) {
+            db.close();
+        }
+        idleReadHandles.clear();
+        helper.close();
+    }
+
+    /**
+     * Runs the given writes on the writer thread and waits for them. Writes called on the
+     * writer thread, inside a transaction of the calling thread (waiting for the writer thread
+     * would deadlock on the write lock) or inside a read transaction (to be rejected) run right
+     * away.
+     *
+     * @param task writes to run
+     * @return result of the writes
+     */
+    <R> R executeWrite(final WriteTransaction<R> task) {
+        if (Thread.currentThread() == writerThread || readTransactionDatabase.get() != null
+                || helper.getWritableDatabase().inTransaction()) {
+            return task.execute();
+        }
+
+        Future<R> future = submitWrite(new Callable<R>() {
+            @Override
+            public R call() {
+                return task.execute();
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the writer thread.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns database for reading. Inside {@link #readTransaction(ReadTransaction)} it is the
+     * database used by the transaction.
+     *
+     * @return database for reading
+     */
+    SQLiteDatabase getReadableDatabase() {
+        recordActivity();
+        SQLiteDatabase db = readTransactionDatabase.get();
+        return db != null ? db : helper.getReadableDatabase();
+    }
+
+    /**
+     * Compiles the statements of the default DAOs created so far, see
+     * {@link EntityStore#compileStatements()}.
+     */
+    void compileStatements() {
+        store.compileStatements();
+    }
+
+    /**
+     * @return time of the last database access by DAOs, see {@link SystemClock#elapsedRealtime()}
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * @return entity classes of this database
+     */
+    List<Class<?>> getEntityClasses() {
+        return store.getEntityClasses();
+    }
+
+    /**
+     * Remembers the time of the last access for the idle check of the maintenance, access from
+     * the warmup thread does not count.
+     */
+    private void recordActivity() {
+        if (backgroundAccess.get() == null) {
+            lastActivity = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private synchronized void initDatabase(Class<?>... entityClasses) throws
+            InstantiationException, IllegalAccessException {
+        for (Class<?> clazz : entityClasses) {
+            EntitySchema.validateEntityClass(clazz);
+        }
+        migrator.migrate(entityClasses);
+
+        try {
+            store = new EntityStore.Builder(new DatabaseBackend(new AndroidStorageBackend(helper)))
+                    .entities(entityClasses)
+                    .bindingFactory(QueryHelperBinding.FACTORY)
+                    .queryInspector(queryPlanAnalyzer)
+                    .build();
+        } catch (InstantiationException | IllegalAccessException e) {
+            Log.e(Const.TAG, "Unable to instantiate mapping classes of " + helper.getDatabaseName(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return read-only handle of the database file for a read transaction
+     */
+    private SQLiteDatabase acquireReadHandle() {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Database " + helper.getDatabaseName() + " is closed.");
+            }
+            SQLiteDatabase db = idleReadHandles.poll();
+            if (db != null) {
+                return db;
+            }
+        }
+        // a handle without write-ahead logging flags has a single connection, so the savepoint
+        // and all reads of the transaction run on it
+        return SQLiteDatabase.openDatabase(helper.getReadableDatabase().getPath(), null, SQLiteDatabase.OPEN_READONLY);
+    }
+
+    /**
+     * Ends the read transaction on the given handle and returns the handle for next read
+     * transactions.
+     */
+    private void endReadTransaction(SQLiteDatabase db) {
+        try {
+            db.execSQL("release " + READ_SAVEPOINT);
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+        synchronized (this) {
+            if (!closed) {
+                idleReadHandles.offer(db);
+                return;
+            }
+        }
+        db.close();
+    }
+
+    /**
+     * Begins the read transaction on the database of the helper if it does not block writers
+     * or if there is no other handle.
+     *
+     * @return true if the transaction was started, false if a read-only handle has to be used
+     */
+    private boolean beginHelperTransaction(SQLiteDatabase db) {
+        if (helper.getDatabaseName() == null) {
+            db.beginTransaction();
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= READ_ONLY_TRANSACTION_SDK) {
+            try {
+                Method method = SQLiteDatabase.class.getMethod("beginTransactionReadOnly");
+                method.invoke(db);
+                return true;
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                Log.w(Const.TAG, "Read-only transactions are not available, using a read-only handle.", e);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Backend of the store, connections are acquired by the DAOs of this database only. Writes
+     * inside {@link #readTransaction(ReadTransaction)} are rejected and every acquisition counts
+     * as activity for the maintenance.
+     */
+    private final class DatabaseBackend implements StorageBackend {
+
+        private final AndroidStorageBackend delegate;
+
+        private DatabaseBackend(AndroidStorageBackend delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public BackendConnection acquireConnection(boolean write) {
+            SQLiteDatabase readDb = readTransactionDatabase.get();
+            if (write && readDb != null) {
+                throw new IllegalStateException("Writes are not allowed inside a read transaction.");
+            }
+            recordActivity();
+            return readDb != null ? delegate.acquireConnection(readDb) : delegate.acquireConnection(write);
+        }
+
+        @Override
+        public void releaseConnection(BackendConnection connection) {
+            delegate.releaseConnection(connection);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
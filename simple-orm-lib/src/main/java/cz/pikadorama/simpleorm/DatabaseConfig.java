@@ -0,0 +1,144 @@
+package cz.pikadorama.simpleorm;
+
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cz.pikadorama.simpleorm.annotation.DbTable;
+
+/**
+ * Configuration of a {@link Database} instance. Use {@link Builder} to create it.
+ */
+public final class DatabaseConfig {
+
+    private final SQLiteOpenHelper helper;
+    private final List<Class<?>> entityClasses;
+    private final int migrationBatchSize;
+    private final QueryPlanAnalyzer queryPlanAnalyzer;
+    private final MaintenancePolicy maintenancePolicy;
+
+    private DatabaseConfig(Builder builder) {
+        this.helper = builder.helper;
+        this.entityClasses = Collections.unmodifiableList(new ArrayList<>(builder.entityClasses));
+        this.migrationBatchSize = builder.migrationBatchSize;
+        this.queryPlanAnalyzer = builder.queryPlanAnalyzer;
+        this.maintenancePolicy = builder.maintenancePolicy;
+    }
+
+    /**
+     * @return helper defining the database file and version
+     */
+    public SQLiteOpenHelper getHelper() {
+        return helper;
+    }
+
+    /**
+     * @return entity classes stored in the database
+     */
+    public List<Class<?>> getEntityClasses() {
+        return entityClasses;
+    }
+
+    /**
+     * @return number of rows copied in one transaction when a table is rebuilt in the background
+     */
+    public int getMigrationBatchSize() {
+        return migrationBatchSize;
+    }
+
+    /**
+     * @return analyzer of DAO query plans or null if disabled
+     */
+    public QueryPlanAnalyzer getQueryPlanAnalyzer() {
+        return queryPlanAnalyzer;
+    }
+
+    /**
+     * @return policy of the periodic maintenance or null if disabled
+     */
+    public MaintenancePolicy getMaintenancePolicy() {
+        return maintenancePolicy;
+    }
+
+    public static final class Builder {
+
+        private final SQLiteOpenHelper helper;
+        private final List<Class<?>> entityClasses = new ArrayList<>();
+        private int migrationBatchSize = SchemaMigrator.DEFAULT_BATCH_SIZE;
+        private QueryPlanAnalyzer queryPlanAnalyzer = null;
+        private MaintenancePolicy maintenancePolicy = null;
+
+        /**
+         * @param helper {@link SQLiteOpenHelper} implementation defining the database file and version
+         */
+        public Builder(SQLiteOpenHelper helper) {
+            if (helper == null) {
+                throw new IllegalArgumentException("SQLiteOpenHelper is mandatory.");
+            }
+            this.helper = helper;
+        }
+
+        /**
+         * Adds entity classes to be handled by the database.
+         *
+         * @param classes entity classes annotated with the {@link DbTable} annotation
+         * @return this builder
+         */
+        public Builder entities(Class<?>... classes) {
+            entityClasses.addAll(Arrays.asList(classes));
+            return this;
+        }
+
+        /**
+         * Sets number of rows copied in one transaction when a table is rebuilt in the background.
+         * Smaller batches hold the database lock for a shorter time.
+         *
+         * @param batchSize number of rows per batch, must be > 0
+         * @return this builder
+         */
+        public Builder migrationBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Migration batch size must be > 0.");
+            }
+            this.migrationBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Enables analysis of query plans of DAO queries. Meant for debug builds only.
+         *
+         * @param analyzer analyzer collecting the plans, null to disable the analysis
+         * @return this builder
+         */
+        public Builder queryPlanAnalyzer(QueryPlanAnalyzer analyzer) {
+            this.queryPlanAnalyzer = analyzer;
+            return this;
+        }
+
+        /**
+         * Enables periodic maintenance (PRAGMA optimize, incremental vacuum and WAL checkpoints)
+         * while the database is idle.
+         *
+         * @param policy maintenance policy, null to disable the maintenance
+         * @return this builder
+         */
+        public Builder maintenance(MaintenancePolicy policy) {
+            this.maintenancePolicy = policy;
+            return this;
+        }
+
+        /**
+         * @return configuration
+         * @throws IllegalArgumentException if no entity class was added
+         */
+        public DatabaseConfig build() {
+            if (entityClasses.isEmpty()) {
+                throw new IllegalArgumentException("No Entity classes have been specified.");
+            }
+            return new DatabaseConfig(this);
+        }
+    }
+}
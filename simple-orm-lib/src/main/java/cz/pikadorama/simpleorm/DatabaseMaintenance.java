@@ -0,0 +1,188 @@
+package cz.pikadorama.simpleorm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import cz.pikadorama.simpleorm.util.Const;
+
+/**
+ * Periodic maintenance of a {@link Database} driven by {@link MaintenancePolicy}. When the
+ * database has not been used by DAOs for the configured idle time, it
+ * <ol>
+ * <li>runs {@code PRAGMA optimize} so the query planner statistics follow the data,</li>
+ * <li>returns free pages to the file system by {@code PRAGMA incremental_vacuum} in bounded
+ * steps once the freelist exceeds the threshold,</li>
+ * <li>runs a passive checkpoint once the write-ahead log file exceeds the threshold and caps the
+ * file by {@code PRAGMA journal_size_limit}, so the writer restarting the log shrinks it and the
+ * next run does not checkpoint again.</li>
+ * </ol>
+ * Every run produces a {@link MaintenanceReport}.
+ */
+final class DatabaseMaintenance {
+
+    private static final int AUTO_VACUUM_NONE = 0;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final String WAL_FILE_SUFFIX = "-wal";
+
+    private final Database database;
+    private final MaintenancePolicy policy;
+
+    private ScheduledExecutorService scheduler = null;
+    private volatile MaintenanceReport lastReport = null;
+
+    DatabaseMaintenance(Database database, MaintenancePolicy policy) {
+        this.database = database;
+        this.policy = policy;
+    }
+
+    synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        final String threadName = "simple-orm-maintenance-" + database.getHelper().getDatabaseName();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!isIdle()) {
+                    return;
+                }
+                try {
+                    runMaintenance();
+                } catch (RuntimeException e) {
+                    // keep the schedule alive, the next run may succeed
+                    Log.e(Const.TAG, "Database maintenance failed.", e);
+                }
+            }
+        }, policy.getCheckIntervalMillis(), policy.getCheckIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    MaintenanceReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Runs all maintenance steps right away on the calling thread.
+     *
+     * @return metrics of the run
+     */
+    synchronized MaintenanceReport runMaintenance() {
+        long start = System.nanoTime();
+        SQLiteDatabase db = database.getHelper().getWritableDatabase();
+
+        long stepStart = System.nanoTime();
+        consume(db, "pragma optimize;");
+        long optimizeMillis = millisSince(stepStart);
+
+        long pageSize = queryLong(db, "pragma page_size;");
+        long freelistPages = queryLong(db, "pragma freelist_count;");
+        long freelistBytes = freelistPages * pageSize;
+        int vacuumSteps = 0;
+        long vacuumMillis = 0;
+        long reclaimedBytes = 0;
+        if (freelistBytes >= policy.getFreelistThresholdBytes()) {
+            stepStart = System.nanoTime();
+            long autoVacuum = queryLong(db, "pragma auto_vacuum;");
+            if (autoVacuum == AUTO_VACUUM_INCREMENTAL) {
+                long remainingPages = freelistPages;
+                while (remainingPages > 0 && vacuumSteps < policy.getMaxVacuumSteps() && isIdle()) {
+                    consume(db, String.format("pragma incremental_vacuum(%d);", policy.getVacuumStepPages()));
+                    vacuumSteps++;
+                    remainingPages = queryLong(db, "pragma freelist_count;");
+                }
+                reclaimedBytes = (freelistPages - remainingPages) * pageSize;
+            } else if (autoVacuum == AUTO_VACUUM_NONE && policy.isConvertToIncrementalVacuum()) {
+                Log.i(Const.TAG, "Converting database to incremental vacuum.");
+                db.execSQL("pragma auto_vacuum = incremental;");
+                db.execSQL("vacuum;");
+                vacuumSteps = 1;
+                reclaimedBytes = freelistBytes;
+            } else {
+                Log.i(Const.TAG, "Free pages cannot be reclaimed, the database does not use incremental vacuum.");
+            }
+            vacuumMillis = millisSince(stepStart);
+        }
+
+        long walBytes = new File(db.getPath() + WAL_FILE_SUFFIX).length();
+        long walFrames = -1;
+        long checkpointedFrames = -1;
+        long checkpointMillis = 0;
+        if (walBytes > policy.getWalThresholdBytes()) {
+            stepStart = System.nanoTime();
+            // the checkpoint itself never shrinks the file (TRUNCATE needs SQLite 3.8.8, Android
+            // 5.0 ships 3.8.4), the writer restarting the log truncates it to the limit
+            consume(db, String.format("pragma journal_size_limit = %d;", policy.getWalThresholdBytes()));
+            try (Cursor cursor = db.rawQuery("pragma wal_checkpoint(passive);", null)) {
+                if (cursor.moveToFirst()) {
+                    // columns: busy, frames in log, checkpointed frames
+                    walFrames = cursor.getLong(1);
+                    checkpointedFrames = cursor.getLong(2);
+                }
+            }
+            if (checkpointedFrames < walFrames) {
+                Log.i(Const.TAG, String.format("Checkpointed %d of %d WAL frames, the rest is in use by readers.",
+                        checkpointedFrames, walFrames));
+            }
+            checkpointMillis = millisSince(stepStart);
+        }
+
+        MaintenanceReport report = new MaintenanceReport(optimizeMillis, freelistBytes, reclaimedBytes,
+                vacuumSteps, vacuumMillis, walBytes, walFrames, checkpointedFrames, checkpointMillis,
+                millisSince(start));
+        lastReport = report;
+        Log.i(Const.TAG, "Database maintenance finished: " + report);
+
+        MaintenancePolicy.Listener listener = policy.getListener();
+        if (listener != null) {
+            listener.onMaintenanceFinished(report);
+        }
+        return report;
+    }
+
+    private boolean isIdle() {
+        return SystemClock.elapsedRealtime() - database.getLastActivity() >= policy.getIdleMillis();
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Pragmas may return rows, so they are run as queries and stepped through.
+     */
+    private static void consume(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            while (cursor.moveToNext()) {
+                // nothing to read
+            }
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
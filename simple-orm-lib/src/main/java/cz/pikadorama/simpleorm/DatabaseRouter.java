@@ -0,0 +1,248 @@
+package cz.pikadorama.simpleorm;
+
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.dao.Dao;
+
+/**
+ * Places entities into separate {@link Database} instances (i.e. separate SQLite files, each
+ * with its own writer thread). An entity can be placed as a whole or split by ranges of its
+ * IDs. Entities without any placement stay in the default database. Use {@link Builder} to
+ * create it, the router is immutable once built.
+ *
+ * The router does not assign IDs, objects of an entity split by ID ranges must have their ID
+ * set before they are created so they land in the right database. For the same reason the ID
+ * column of such entity cannot be {@code AUTOINCREMENT}, every database would generate the same
+ * IDs.
+ */
+public final class DatabaseRouter {
+
+    private final Database defaultDatabase;
+    private final Map<Class<?>, Database> entityPlacements;
+    private final Map<Class<?>, RangePlacement> rangePlacements;
+
+    private DatabaseRouter(Builder builder) {
+        this.defaultDatabase = builder.defaultDatabase;
+        this.entityPlacements = new HashMap<>(builder.entityPlacements);
+        this.rangePlacements = new HashMap<>();
+        for (Map.Entry<Class<?>, List<Range>> entry : builder.ranges.entrySet()) {
+            rangePlacements.put(entry.getKey(), new RangePlacement(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Returns database the whole entity is placed in.
+     *
+     * @param entityClass entity class
+     * @return database of the entity
+     * @throws IllegalArgumentException if the entity is split by ID ranges
+     */
+    public Database getDatabase(Class<?> entityClass) {
+        if (rangePlacements.containsKey(entityClass)) {
+            throw new IllegalArgumentException(entityClass + " is split by ID ranges, specify the ID.");
+        }
+        Database database = entityPlacements.get(entityClass);
+        return database != null ? database : defaultDatabase;
+    }
+
+    /**
+     * Returns database the entity object with the given ID is placed in.
+     *
+     * @param entityClass entity class
+     * @param id          object ID
+     * @return database of the object
+     * @throws IllegalArgumentException if the ID is not covered by any range of the entity
+     */
+    public Database getDatabase(Class<?> entityClass, long id) {
+        RangePlacement placement = rangePlacements.get(entityClass);
+        return placement != null ? placement.getDatabase(id) : getDatabase(entityClass);
+    }
+
+    /**
+     * Returns all databases holding objects of the given entity, e.g. to query all its ranges.
+     *
+     * @param entityClass entity class
+     * @return databases of the entity
+     */
+    public List<Database> getDatabases(Class<?> entityClass) {
+        RangePlacement placement = rangePlacements.get(entityClass);
+        if (placement == null) {
+            return Collections.singletonList(getDatabase(entityClass));
+        }
+        return new ArrayList<>(new LinkedHashSet<>(placement.databases));
+    }
+
+    /**
+     * Returns DAO of the database the whole entity is placed in.
+     *
+     * @param entityClass entity class
+     * @return DAO
+     */
+    public <T> Dao<T> getDao(Class<T> entityClass) {
+        return getDatabase(entityClass).getDao(entityClass);
+    }
+
+    /**
+     * Returns DAO of the database the entity object with the given ID is placed in.
+     *
+     * @param entityClass entity class
+     * @param id          object ID
+     * @return DAO
+     */
+    public <T> Dao<T> getDao(Class<T> entityClass, long id) {
+        return getDatabase(entityClass, id).getDao(entityClass);
+    }
+
+    public static final class Builder {
+
+        private final Database defaultDatabase;
+        private final Map<Class<?>, Database> entityPlacements = new HashMap<>();
+        private final Map<Class<?>, List<Range>> ranges = new HashMap<>();
+
+        /**
+         * @param defaultDatabase database for entities without placement
+         */
+        public Builder(Database defaultDatabase) {
+            if (defaultDatabase == null) {
+                throw new IllegalArgumentException("Default database is mandatory.");
+            }
+            this.defaultDatabase = defaultDatabase;
+        }
+
+        /**
+         * Places the whole entity into the given database.
+         *
+         * @param entityClass entity class (must be registered in the database)
+         * @param database    database
+         * @return this builder
+         */
+        public Builder place(Class<?> entityClass, Database database) {
+            if (ranges.containsKey(entityClass)) {
+                throw new IllegalArgumentException(entityClass + " is already split by ID ranges.");
+            }
+            entityPlacements.put(entityClass, database);
+            return this;
+        }
+
+        /**
+         * Places objects of the entity with IDs in the given range into the given database.
+         *
+         * @param entityClass entity class (must be registered in the database)
+         * @param fromId      first ID of the range (inclusive)
+         * @param toId        last ID of the range (exclusive)
+         * @param database    database
+         * @return this builder
+         * @throws IllegalArgumentException if the ID column of the entity is {@code AUTOINCREMENT}
+         */
+        public Builder placeRange(Class<?> entityClass, long fromId, long toId, Database database) {
+            if (fromId >= toId) {
+                throw new IllegalArgumentException(String.format("Empty ID range [%d, %d).", fromId, toId));
+            }
+            if (entityPlacements.containsKey(entityClass)) {
+                throw new IllegalArgumentException(entityClass + " is already placed as a whole.");
+            }
+            if (hasAutoincrementId(entityClass)) {
+                throw new IllegalArgumentException(entityClass + " has AUTOINCREMENT ID, it cannot be split by ID ranges.");
+            }
+
+            List<Range> entityRanges = ranges.get(entityClass);
+            if (entityRanges == null) {
+                entityRanges = new ArrayList<>();
+                ranges.put(entityClass, entityRanges);
+            }
+            entityRanges.add(new Range(fromId, toId, database));
+            return this;
+        }
+
+        /**
+         * @return router
+         * @throws IllegalArgumentException if ID ranges of an entity overlap
+         */
+        public DatabaseRouter build() {
+            return new DatabaseRouter(this);
+        }
+
+        private static boolean hasAutoincrementId(Class<?> entityClass) {
+            for (DbColumn column : EntitySchema.getDbColumns(entityClass)) {
+                if (column.name().equals(BaseColumns._ID)) {
+                    return column.properties().toLowerCase(Locale.US).contains("autoincrement");
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Range {
+
+        private final long fromId;
+        private final long toId;
+        private final Database database;
+
+        private Range(long fromId, long toId, Database database) {
+            this.fromId = fromId;
+            this.toId = toId;
+            this.database = database;
+        }
+    }
+
+    /**
+     * Ranges of one entity sorted by their start, looked up by binary search.
+     */
+    private static final class RangePlacement {
+
+        private final Class<?> entityClass;
+        private final long[] fromIds;
+        private final long[] toIds;
+        private final List<Database> databases;
+
+        private RangePlacement(Class<?> entityClass, List<Range> ranges) {
+            List<Range> sorted = new ArrayList<>(ranges);
+            Collections.sort(sorted, new Comparator<Range>() {
+                @Override
+                public int compare(Range lhs, Range rhs) {
+                    return lhs.fromId < rhs.fromId ? -1 : (lhs.fromId == rhs.fromId ? 0 : 1);
+                }
+            });
+
+            this.entityClass = entityClass;
+            this.fromIds = new long[sorted.size()];
+            this.toIds = new long[sorted.size()];
+            this.databases = new ArrayList<>(sorted.size());
+            for (int i = 0; i < sorted.size(); i++) {
+                Range range = sorted.get(i);
+                if (i > 0 && range.fromId < toIds[i - 1]) {
+                    throw new IllegalArgumentException("Overlapping ID ranges of " + entityClass);
+                }
+                fromIds[i] = range.fromId;
+                toIds[i] = range.toId;
+                databases.add(range.database);
+            }
+        }
+
+        private Database getDatabase(long id) {
+            int low = 0;
+            int high = fromIds.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (id < fromIds[middle]) {
+                    high = middle - 1;
+                } else if (id >= toIds[middle]) {
+                    low = middle + 1;
+                } else {
+                    return databases.get(middle);
+                }
+            }
+            throw new IllegalArgumentException(String.format("ID %d of %s is not covered by any range.", id, entityClass));
+        }
+    }
+}
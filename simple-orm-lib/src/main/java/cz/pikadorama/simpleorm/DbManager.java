@@ -2,32 +2,35 @@ package cz.pikadorama.simpleorm;
 
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.provider.BaseColumns;
 import android.util.Log;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import cz.pikadorama.simpleorm.annotation.DbColumn;
 import cz.pikadorama.simpleorm.annotation.DbTable;
-import cz.pikadorama.simpleorm.dao.DaoQueryHelper;
+import cz.pikadorama.simpleorm.dao.Dao;
 import cz.pikadorama.simpleorm.util.Const;
 
 
 /**
  * Entry point of the DB framework. First of all, you need to register implementation of
  * {@link SQLiteOpenHelper}, just skip {@link SQLiteOpenHelper#onCreate(SQLiteDatabase)}, it will be
- * done automatically.
+ * done automatically. The same applies to {@link SQLiteOpenHelper#onUpgrade(SQLiteDatabase, int, int)}
+ * for changes of the {@link DbColumn} annotated fields: added columns are added right away and
+ * tables that need to be rebuilt (e.g. because of a removed column) are migrated in the background.
+ * See {@link #awaitMigrations(long, TimeUnit)}.
  */
 public final class DbManager {
 
-    private static final Map<String, List<String>> tablesAndColumns = new HashMap<>();
-
-    private static boolean initialized = false;
-    private static SQLiteOpenHelper helper = null;
+    private static Database database = null;
+    private static int migrationBatchSize = SchemaMigrator.DEFAULT_BATCH_SIZE;
+    private static QueryPlanAnalyzer queryPlanAnalyzer = null;
+    private static MaintenancePolicy maintenancePolicy = null;
+    // DAOs registered before the default database exists
+    private static final Map<Class<?>, Dao<?>> pendingDaos = new LinkedHashMap<>();
 
     /**
      * Register your {@link SQLiteOpenHelper} implementation. After the helper is registered, whole database
@@ -37,6 +40,8 @@ public final class DbManager {
      * The helper defines your database name and version. It can also provide possible upgrade scripts between
      * versions.
      *
+     * If you need more than one database, open additional {@link Database} instances instead.
+     *
      * @param helperToRegister {@link SQLiteOpenHelper} implementation
      * @param entityClasses    array of entity classes that you want to be handled automatically by the framework
      *                         (they must be annotated with the {@link DbTable} annotation}
@@ -45,7 +50,7 @@ public final class DbManager {
     public synchronized static final void registerHelper(SQLiteOpenHelper helperToRegister,
                                                          Class<?>... entityClasses) throws
             IllegalAccessException, InstantiationException {
-        if (initialized) {
+        if (database != null) {
             Log.i(Const.TAG, "Database is already initialized. Skipping.");
             return;
         }
@@ -54,136 +59,156 @@ public final class DbManager {
             throw new IllegalArgumentException("No Entity classes have been specified.");
         }
 
-        helper = helperToRegister;
-        initDatabase(entityClasses);
+        database = Database.open(new DatabaseConfig.Builder(helperToRegister)
+                .entities(entityClasses)
+                .migrationBatchSize(migrationBatchSize)
+                .queryPlanAnalyzer(queryPlanAnalyzer)
+                .maintenance(maintenancePolicy)
+                .build());
+        for (Map.Entry<Class<?>, Dao<?>> entry : pendingDaos.entrySet()) {
+            database.registerDao(entry.getKey(), entry.getValue());
+        }
+        pendingDaos.clear();
+    }
 
-        initialized = true;
+    /**
+     * See {@link DaoManager#registerDao(Class, Dao)}.
+     */
+    synchronized static void registerDao(Class<?> daoType, Dao<?> dao) {
+        if (database == null) {
+            pendingDaos.put(daoType, dao);
+        } else {
+            database.registerDao(daoType, dao);
+        }
     }
 
     /**
-     * Returns instance of database helper. It need to be registered with
-     * {@link #registerHelper(SQLiteOpenHelper, Class[])} before you call this method.
+     * Returns the default database instance created by
+     * {@link #registerHelper(SQLiteOpenHelper, Class[])}.
      *
-     * @return database helper instance
+     * @return default database
      * @throws IllegalStateException in case there is no {@link SQLiteOpenHelper} implementation
      */
-    public synchronized static final SQLiteOpenHelper getHelper() {
-        if (helper == null) {
+    public synchronized static final Database getDatabase() {
+        if (database == null) {
             throw new IllegalStateException(
                     "There is no SQLiteOpenHelper implementation registered.");
         }
-        return helper;
+        return database;
     }
 
     /**
-     * Returns list of columns names for the given table.
+     * Returns instance of database helper. It need to be registered with
+     * {@link #registerHelper(SQLiteOpenHelper, Class[])} before you call this method.
      *
-     * @param tableName table name
-     * @return list of column names
-     * @throws IllegalArgumentException if the table does not exist
+     * @return database helper instance
+     * @throws IllegalStateException in case there is no {@link SQLiteOpenHelper} implementation
      */
-    static List<String> getColumnNames(String tableName) {
-        List<String> columnNames = tablesAndColumns.get(tableName);
-        if (columnNames == null) {
-            throw new IllegalArgumentException("There is no Table named " + tableName);
-        }
-        return columnNames;
+    public static final SQLiteOpenHelper getHelper() {
+        return getDatabase().getHelper();
     }
 
-    private synchronized static void initDatabase(Class<?>... entityClasses) throws
-            InstantiationException, IllegalAccessException {
-        for (Class<?> clazz : entityClasses) {
-            validateEntityClass(clazz);
-
-            DbTable table = clazz.getAnnotation(DbTable.class);
-            tablesAndColumns.put(table.name(), getColumnNames(clazz));
-
-            // register DaoQueryHelper for this table
-            try {
-                DaoQueryHelper<?> helper = (DaoQueryHelper<?>) table.mappingClass().newInstance();
-                DaoManager.registerDaoQueryHelper(clazz, helper);
-            } catch (InstantiationException | IllegalAccessException e) {
-                Log.e(Const.TAG, "Unable to instantiate DaoQueryHelper for " + table.mappingClass(),
-                        e);
-                throw e;
-            }
-        }
-
-        createTables(entityClasses);
+    /**
+     * Runs the given reads on a single snapshot of the default database, see
+     * {@link Database#readTransaction(ReadTransaction)}.
+     *
+     * @param transaction reads to run
+     * @return result of the transaction
+     */
+    public static <R> R readTransaction(ReadTransaction<R> transaction) {
+        return getDatabase().readTransaction(transaction);
     }
 
-    private synchronized static void createTables(Class<?>... entityClasses) {
-        for (Class<?> clazz : entityClasses) {
-            validateEntityClass(clazz);
-
-            SQLiteDatabase db = DbManager.getHelper().getWritableDatabase();
-            try {
-                String sql = composeCreateTableSql(clazz);
-                db.beginTransaction();
-                db.execSQL(sql);
-                db.setTransactionSuccessful();
-            } finally {
-                db.endTransaction();
-            }
-        }
+    /**
+     * Runs the given writes in a single transaction of the default database, see
+     * {@link Database#writeTransaction(WriteTransaction)}.
+     *
+     * @param transaction writes to run
+     * @return result of the transaction
+     */
+    public static <R> R writeTransaction(WriteTransaction<R> transaction) {
+        return getDatabase().writeTransaction(transaction);
     }
 
-    private static String composeCreateTableSql(Class<?> clazz) {
-        String sqlStart = String
-                .format("create table %s (", clazz.getAnnotation(DbTable.class).name());
-        String sqlEnd = ");";
+    /**
+     * Starts background warmup of the default database, see {@link Database#warmUp(String...)}.
+     *
+     * @param preloadNames names of the tables and indexes to read into the page cache
+     * @return handle to wait for the warmup and read its timings
+     */
+    public static Warmup warmUp(String... preloadNames) {
+        return getDatabase().warmUp(preloadNames);
+    }
 
-        String sqlMiddle = "";
-        for (DbColumn column : getDbColumns(clazz)) {
-            sqlMiddle += String
-                    .format("%s %s %s, ", column.name(), column.type(), column.properties());
+    /**
+     * Sets number of rows copied in one transaction when a table is rebuilt in the background.
+     * Smaller batches hold the database lock for a shorter time. It must be called before
+     * {@link #registerHelper(SQLiteOpenHelper, Class[])} to take effect.
+     *
+     * @param batchSize number of rows per batch, must be > 0
+     */
+    public synchronized static void setMigrationBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Migration batch size must be > 0.");
         }
+        migrationBatchSize = batchSize;
+    }
 
-        // remove the last comma
-        StringBuilder builder = new StringBuilder(sqlMiddle);
-        builder.replace(sqlMiddle.lastIndexOf(","), sqlMiddle.lastIndexOf(",") + 1, "");
-        sqlMiddle = builder.toString();
-
-        return sqlStart + sqlMiddle + sqlEnd;
+    /**
+     * Enables analysis of DAO query plans of the default database, see {@link QueryPlanAnalyzer}.
+     * Meant for debug builds only. It must be called before
+     * {@link #registerHelper(SQLiteOpenHelper, Class[])} to take effect.
+     *
+     * @param analyzer analyzer collecting the plans, null to disable the analysis
+     */
+    public synchronized static void setQueryPlanAnalyzer(QueryPlanAnalyzer analyzer) {
+        queryPlanAnalyzer = analyzer;
     }
 
-    private static List<String> getColumnNames(Class<?> clazz) {
-        List<DbColumn> columns = getDbColumns(clazz);
-        List<String> columnNames = new ArrayList<>();
-        for (DbColumn column : columns) {
-            columnNames.add(column.name());
-        }
-        return columnNames;
+    /**
+     * Enables periodic maintenance of the default database (PRAGMA optimize, incremental vacuum
+     * and WAL checkpoints) while it is idle, see {@link MaintenancePolicy}. It must be called
+     * before {@link #registerHelper(SQLiteOpenHelper, Class[])} to take effect.
+     *
+     * @param policy maintenance policy, null to disable the maintenance
+     */
+    public synchronized static void setMaintenancePolicy(MaintenancePolicy policy) {
+        maintenancePolicy = policy;
     }
 
-    private static List<DbColumn> getDbColumns(Class<?> clazz) {
-        List<DbColumn> columns = new ArrayList<>();
-        for (Field field : clazz.getDeclaredFields()) {
-            DbColumn dbColumnAnnotation = field.getAnnotation(DbColumn.class);
-            if (dbColumnAnnotation != null) {
-                columns.add(dbColumnAnnotation);
-            }
-        }
-        return columns;
+    /**
+     * Returns whether there is a table rebuild of the default database still running in the
+     * background, see {@link Database#isMigrating()}.
+     *
+     * @return true if a migration is in progress
+     */
+    public synchronized static boolean isMigrating() {
+        return database != null && database.isMigrating();
     }
 
-    private static void validateEntityClass(Class<?> clazz) {
-        DbTable classAnnotation = clazz.getAnnotation(DbTable.class);
-        if (classAnnotation == null) {
-            throw new IllegalArgumentException(clazz + " does not have @DbTable annotation.");
+    /**
+     * Blocks until all background table rebuilds of the default database finish or the timeout
+     * elapses.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    time unit of the timeout
+     * @return true if there is no migration in progress, false if the timeout elapsed
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public static boolean awaitMigrations(long timeout, TimeUnit unit) throws InterruptedException {
+        Database currentDatabase;
+        synchronized (DbManager.class) {
+            currentDatabase = database;
         }
+        return currentDatabase == null || currentDatabase.awaitMigrations(timeout, unit);
+    }
 
-        boolean baseColumnId = false;
-        for (Field field : clazz.getDeclaredFields()) {
-            DbColumn column = field.getAnnotation(DbColumn.class);
-            if (column != null && BaseColumns._ID.equals(column.name()) &&
-                    DbDataType.INTEGER == column.type()) {
-                baseColumnId = true;
-            }
-        }
-        if (!baseColumnId) {
-            throw new IllegalArgumentException(clazz +
-                    " does not have mandatory BaseColumn._ID field of DbDataType.INTEGER defined by @DbColumn annotation.");
-        }
+    /**
+     * See {@link Database#getMigrationErrors()}.
+     *
+     * @return errors of the failed table rebuilds of the default database by table name
+     */
+    public synchronized static Map<String, RuntimeException> getMigrationErrors() {
+        return database == null ? Collections.<String, RuntimeException>emptyMap() : database.getMigrationErrors();
     }
 }
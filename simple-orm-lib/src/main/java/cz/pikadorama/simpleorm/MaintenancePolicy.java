@@ -0,0 +1,187 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of the periodic database maintenance, see {@link DatabaseMaintenance}. Use
+ * {@link Builder} to create it.
+ */
+public final class MaintenancePolicy {
+
+    /**
+     * Callback receiving the result of each maintenance run. It is called on the maintenance
+     * thread.
+     */
+    public interface Listener {
+
+        void onMaintenanceFinished(MaintenanceReport report);
+
+    }
+
+    private final long checkIntervalMillis;
+    private final long idleMillis;
+    private final long freelistThresholdBytes;
+    private final int vacuumStepPages;
+    private final int maxVacuumSteps;
+    private final long walThresholdBytes;
+    private final boolean convertToIncrementalVacuum;
+    private final Listener listener;
+
+    private MaintenancePolicy(Builder builder) {
+        this.checkIntervalMillis = builder.checkIntervalMillis;
+        this.idleMillis = builder.idleMillis;
+        this.freelistThresholdBytes = builder.freelistThresholdBytes;
+        this.vacuumStepPages = builder.vacuumStepPages;
+        this.maxVacuumSteps = builder.maxVacuumSteps;
+        this.walThresholdBytes = builder.walThresholdBytes;
+        this.convertToIncrementalVacuum = builder.convertToIncrementalVacuum;
+        this.listener = builder.listener;
+    }
+
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    public long getFreelistThresholdBytes() {
+        return freelistThresholdBytes;
+    }
+
+    public int getVacuumStepPages() {
+        return vacuumStepPages;
+    }
+
+    public int getMaxVacuumSteps() {
+        return maxVacuumSteps;
+    }
+
+    public long getWalThresholdBytes() {
+        return walThresholdBytes;
+    }
+
+    public boolean isConvertToIncrementalVacuum() {
+        return convertToIncrementalVacuum;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    public static final class Builder {
+
+        private long checkIntervalMillis = TimeUnit.MINUTES.toMillis(10);
+        private long idleMillis = TimeUnit.SECONDS.toMillis(30);
+        private long freelistThresholdBytes = 1024 * 1024;
+        private int vacuumStepPages = 256;
+        private int maxVacuumSteps = 64;
+        private long walThresholdBytes = 4 * 1024 * 1024;
+        private boolean convertToIncrementalVacuum = false;
+        private Listener listener = null;
+
+        /**
+         * How often the maintenance checks whether there is something to do. Default is 10 minutes.
+         *
+         * @param interval interval between checks
+         * @param unit     time unit of the interval
+         * @return this builder
+         */
+        public Builder checkInterval(long interval, TimeUnit unit) {
+            this.checkIntervalMillis = checkPositive(unit.toMillis(interval), "Check interval");
+            return this;
+        }
+
+        /**
+         * How long the database must not be used by DAOs before the maintenance runs. Vacuum
+         * also stops between steps when a DAO uses the database. Default is 30 seconds.
+         *
+         * @param idle idle time
+         * @param unit time unit of the idle time
+         * @return this builder
+         */
+        public Builder idleTime(long idle, TimeUnit unit) {
+            this.idleMillis = checkNotNegative(unit.toMillis(idle), "Idle time");
+            return this;
+        }
+
+        /**
+         * Size of free pages which triggers incremental vacuum. Default is 1 MB.
+         *
+         * @param bytes threshold in bytes
+         * @return this builder
+         */
+        public Builder freelistThreshold(long bytes) {
+            this.freelistThresholdBytes = checkPositive(bytes, "Freelist threshold");
+            return this;
+        }
+
+        /**
+         * Number of pages freed by one incremental vacuum step and maximum number of steps in
+         * one run. Each step is a separate write transaction. Defaults are 256 pages and 64 steps.
+         *
+         * @param pages    pages per step
+         * @param maxSteps maximum steps per run
+         * @return this builder
+         */
+        public Builder vacuumSteps(int pages, int maxSteps) {
+            this.vacuumStepPages = (int) checkPositive(pages, "Vacuum step");
+            this.maxVacuumSteps = (int) checkPositive(maxSteps, "Maximum vacuum steps");
+            return this;
+        }
+
+        /**
+         * Size of the write-ahead log file which triggers a passive checkpoint. The file is also
+         * truncated to this size whenever the log restarts after the checkpoint. Default is 4 MB.
+         *
+         * @param bytes threshold in bytes
+         * @return this builder
+         */
+        public Builder walThreshold(long bytes) {
+            this.walThresholdBytes = checkPositive(bytes, "WAL threshold");
+            return this;
+        }
+
+        /**
+         * Incremental vacuum works only for databases with {@code auto_vacuum = INCREMENTAL},
+         * which can be switched on an existing database only by a full {@code VACUUM}. If enabled,
+         * the first idle run over the freelist threshold switches the mode and runs the full
+         * vacuum once, which blocks writers for its duration. Disabled by default.
+         *
+         * @param convert true to convert the database
+         * @return this builder
+         */
+        public Builder convertToIncrementalVacuum(boolean convert) {
+            this.convertToIncrementalVacuum = convert;
+            return this;
+        }
+
+        /**
+         * @param listener callback receiving the result of each maintenance run
+         * @return this builder
+         */
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public MaintenancePolicy build() {
+            return new MaintenancePolicy(this);
+        }
+
+        private static long checkNotNegative(long value, String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException(name + " must be >= 0.");
+            }
+            return value;
+        }
+
+        private static long checkPositive(long value, String name) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be > 0.");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cz.pikadorama.simpleorm;
+
+/**
+ * Metrics of one maintenance run, see {@link DatabaseMaintenance}. Durations are in
+ * milliseconds, steps which did not run report zero.
+ */
+public final class MaintenanceReport {
+
+    private final long optimizeMillis;
+    private final long freelistBytes;
+    private final long reclaimedBytes;
+    private final int vacuumSteps;
+    private final long vacuumMillis;
+    private final long walBytes;
+    private final long walFrames;
+    private final long checkpointedFrames;
+    private final long checkpointMillis;
+    private final long totalMillis;
+
+    MaintenanceReport(long optimizeMillis, long freelistBytes, long reclaimedBytes, int vacuumSteps,
+                      long vacuumMillis, long walBytes, long walFrames, long checkpointedFrames,
+                      long checkpointMillis, long totalMillis) {
+        this.optimizeMillis = optimizeMillis;
+        this.freelistBytes = freelistBytes;
+        this.reclaimedBytes = reclaimedBytes;
+        this.vacuumSteps = vacuumSteps;
+        this.vacuumMillis = vacuumMillis;
+        this.walBytes = walBytes;
+        this.walFrames = walFrames;
+        this.checkpointedFrames = checkpointedFrames;
+        this.checkpointMillis = checkpointMillis;
+        this.totalMillis = totalMillis;
+    }
+
+    /**
+     * @return duration of {@code PRAGMA optimize}
+     */
+    public long getOptimizeMillis() {
+        return optimizeMillis;
+    }
+
+    /**
+     * @return size of free pages before the vacuum
+     */
+    public long getFreelistBytes() {
+        return freelistBytes;
+    }
+
+    /**
+     * @return size of free pages returned to the file system by the vacuum
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    /**
+     * @return number of incremental vacuum steps
+     */
+    public int getVacuumSteps() {
+        return vacuumSteps;
+    }
+
+    /**
+     * @return duration of all vacuum steps
+     */
+    public long getVacuumMillis() {
+        return vacuumMillis;
+    }
+
+    /**
+     * @return size of the write-ahead log file before the checkpoint
+     */
+    public long getWalBytes() {
+        return walBytes;
+    }
+
+    /**
+     * @return number of frames in the write-ahead log, -1 if there was no checkpoint
+     */
+    public long getWalFrames() {
+        return walFrames;
+    }
+
+    /**
+     * @return number of frames moved to the database file, -1 if there was no checkpoint
+     */
+    public long getCheckpointedFrames() {
+        return checkpointedFrames;
+    }
+
+    /**
+     * @return duration of the checkpoint
+     */
+    public long getCheckpointMillis() {
+        return checkpointMillis;
+    }
+
+    /**
+     * @return duration of the whole run
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("optimize=%d ms, vacuum=%d steps/%d ms reclaimed %d of %d bytes, "
+                        + "checkpoint=%d ms %d of %d frames (wal %d bytes), total=%d ms",
+                optimizeMillis, vacuumSteps, vacuumMillis, reclaimedBytes, freelistBytes,
+                checkpointMillis, checkpointedFrames, walFrames, walBytes, totalMillis);
+    }
+}
@@ -0,0 +1,174 @@
+package cz.pikadorama.simpleorm;
+
+import android.content.ContentValues;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cz.pikadorama.simpleorm.backend.AndroidBackendCursor;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.dao.DaoQueryHelper;
+import cz.pikadorama.simpleorm.dao.EntityBinding;
+import cz.pikadorama.simpleorm.dao.IndexedDaoQueryHelper;
+
+/**
+ * {@link EntityBinding} of a {@link DaoQueryHelper} entity. The helper reads the Android cursor
+ * of the backend directly, cursors of other backends and cursors decompressing columns are
+ * presented to it as a {@link Cursor} positioned at their current row.
+ */
+final class QueryHelperBinding<T> implements EntityBinding<T> {
+
+    /**
+     * Factory binding the {@link DaoQueryHelper} mappings, used by the {@link EntityStore} of
+     * {@link Database}.
+     */
+    static final EntityBinding.Factory FACTORY = new EntityBinding.Factory() {
+        @Override
+        public <T> EntityBinding<T> create(Class<T> entityClass, Object mapping) {
+            return mapping instanceof DaoQueryHelper ? new QueryHelperBinding<T>((DaoQueryHelper<T>) mapping) : null;
+        }
+    };
+
+    private final DaoQueryHelper<T> helper;
+    private final IndexedDaoQueryHelper<T> indexedHelper;
+
+    QueryHelperBinding(DaoQueryHelper<T> helper) {
+        this.helper = helper;
+        this.indexedHelper = helper instanceof IndexedDaoQueryHelper ? (IndexedDaoQueryHelper<T>) helper : null;
+    }
+
+    @Override
+    public Reader<T> newReader(BackendCursor backendCursor) {
+        final Cursor cursor = backendCursor instanceof AndroidBackendCursor
+                ? ((AndroidBackendCursor) backendCursor).getCursor() : new BackendCursorView(backendCursor);
+        if (indexedHelper == null) {
+            return new Reader<T>() {
+                @Override
+                public T read() {
+                    return helper.cursorToObject(cursor);
+                }
+            };
+        }
+
+        final int[] columnIndexes = indexedHelper.getColumnIndexes(cursor);
+        return new TargetReader<T>() {
+            @Override
+            public T read() {
+                T obj = indexedHelper.newObject();
+                indexedHelper.cursorToObject(cursor, columnIndexes, obj);
+                return obj;
+            }
+
+            @Override
+            public void read(T target) {
+                indexedHelper.cursorToObject(cursor, columnIndexes, target);
+            }
+        };
+    }
+
+    @Override
+    public boolean readsIntoObjects() {
+        return indexedHelper != null;
+    }
+
+    @Override
+    public Map<String, Object> toValues(T obj) {
+        ContentValues contentValues = helper.objectToContentValues(obj);
+        Map<String, Object> values = new LinkedHashMap<>(contentValues.size() * 2);
+        for (Map.Entry<String, Object> value : contentValues.valueSet()) {
+            values.put(value.getKey(), value.getValue());
+        }
+        return values;
+    }
+
+    @Override
+    public long getId(T obj) {
+        return helper.getId(obj);
+    }
+
+    @Override
+    public void setId(T obj, long id) {
+        helper.setId(obj, id);
+    }
+
+    /**
+     * Current row of a {@link BackendCursor} as an Android cursor with a single row. The backend
+     * cursor is moved by the DAO, the helper only reads the values.
+     */
+    private static final class BackendCursorView extends AbstractCursor {
+
+        private final BackendCursor cursor;
+        private final String[] columnNames;
+
+        private BackendCursorView(BackendCursor cursor) {
+            this.cursor = cursor;
+            this.columnNames = new String[cursor.getColumnCount()];
+            for (int i = 0; i < columnNames.length; i++) {
+                columnNames[i] = cursor.getColumnName(i);
+            }
+            moveToPosition(0);
+        }
+
+        @Override
+        public int getCount() {
+            return 1;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            return cursor.getColumnIndex(columnName);
+        }
+
+        @Override
+        public int getType(int column) {
+            return cursor.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return cursor.isNull(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            return cursor.getString(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return cursor.getBlob(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) cursor.getInt(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return cursor.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return cursor.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) cursor.getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return cursor.getDouble(column);
+        }
+    }
+}
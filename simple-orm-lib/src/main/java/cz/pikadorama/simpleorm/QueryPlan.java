@@ -0,0 +1,92 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of {@code EXPLAIN QUERY PLAN} for one SQL shape executed by a DAO, see
+ * {@link QueryPlanAnalyzer}.
+ */
+public final class QueryPlan {
+
+    private final String sql;
+    private final String entityClassName;
+    private final String tableName;
+    private final List<String> details;
+    private final boolean fullScan;
+    private final boolean tempBTree;
+    private final Set<String> usedIndexes;
+
+    QueryPlan(String sql, String entityClassName, String tableName, List<String> details,
+              boolean fullScan, boolean tempBTree, Set<String> usedIndexes) {
+        this.sql = sql;
+        this.entityClassName = entityClassName;
+        this.tableName = tableName;
+        this.details = Collections.unmodifiableList(details);
+        this.fullScan = fullScan;
+        this.tempBTree = tempBTree;
+        this.usedIndexes = Collections.unmodifiableSet(usedIndexes);
+    }
+
+    /**
+     * @return analyzed SQL, lists of ID placeholders are collapsed to {@code (?...)}
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return name of the entity class whose DAO executed the query
+     */
+    public String getEntityClassName() {
+        return entityClassName;
+    }
+
+    /**
+     * @return table of the DAO which executed the query
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return detail lines of the query plan as reported by SQLite
+     */
+    public List<String> getDetails() {
+        return details;
+    }
+
+    /**
+     * @return true if some table is scanned without an index
+     */
+    public boolean isFullScan() {
+        return fullScan;
+    }
+
+    /**
+     * @return true if SQLite builds a temporary B-tree (for ORDER BY, GROUP BY or DISTINCT)
+     */
+    public boolean usesTempBTree() {
+        return tempBTree;
+    }
+
+    /**
+     * @return names of the indexes used by the query
+     */
+    public Set<String> getUsedIndexes() {
+        return usedIndexes;
+    }
+
+    /**
+     * @return true if the query neither scans a table nor needs a temporary B-tree
+     */
+    public boolean isIndexBacked() {
+        return !fullScan && !tempBTree;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s] %s: %s", tableName, entityClassName, sql, details);
+    }
+}
@@ -0,0 +1,147 @@
+package cz.pikadorama.simpleorm;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cz.pikadorama.simpleorm.backend.BackendConnection;
+import cz.pikadorama.simpleorm.backend.BackendCursor;
+import cz.pikadorama.simpleorm.util.Const;
+
+/**
+ * Debugging aid which runs {@code EXPLAIN QUERY PLAN} for queries executed by DAOs and reports
+ * full table scans, temporary B-trees and indexes no analyzed query uses. Each distinct SQL
+ * shape is analyzed only once. Enable it for debug builds only by
+ * {@link DatabaseConfig.Builder#queryPlanAnalyzer(QueryPlanAnalyzer)}, the first execution of
+ * each query pays for the extra statement.
+ *
+ * Plans are also logged, full scans and temporary B-trees as warnings. Use
+ * {@link #getReport()} in tests to assert that hot queries are index-backed.
+ */
+public final class QueryPlanAnalyzer implements QueryInspector {
+
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\?(\\s*,\\s*\\?)*\\)");
+    private static final Pattern USED_INDEX = Pattern.compile("USING (?:COVERING )?INDEX (\\S+)");
+    private static final String AUTO_INDEX_PREFIX = "sqlite_autoindex_";
+
+    private final ConcurrentMap<String, QueryPlan> plans = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<String>> tableIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * Analyzes the given query unless a query of the same shape was analyzed before.
+     *
+     * @param connection  connection executing the query
+     * @param sql         query
+     * @param entityClass entity class of the DAO executing the query
+     * @param tableName   table of the DAO
+     */
+    @Override
+    public void inspect(BackendConnection connection, String sql, Class<?> entityClass, String tableName) {
+        String shape = PLACEHOLDER_LIST.matcher(sql).replaceAll("(?...)");
+        if (plans.containsKey(shape)) {
+            return;
+        }
+
+        List<String> details = new ArrayList<>();
+        boolean fullScan = false;
+        boolean tempBTree = false;
+        Set<String> usedIndexes = new HashSet<>();
+        // unbound parameters are null, which does not change the plan
+        try (BackendCursor cursor = connection.query("explain query plan " + sql)) {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                details.add(detail);
+                fullScan |= isFullScan(detail);
+                tempBTree |= detail.contains("TEMP B-TREE");
+                Matcher matcher = USED_INDEX.matcher(detail);
+                if (matcher.find()) {
+                    usedIndexes.add(matcher.group(1));
+                }
+            }
+        }
+
+        if (!tableIndexes.containsKey(tableName)) {
+            tableIndexes.put(tableName, queryIndexes(connection, tableName));
+        }
+
+        QueryPlan plan = new QueryPlan(shape, entityClass.getName(), tableName, details, fullScan, tempBTree, usedIndexes);
+        if (plans.putIfAbsent(shape, plan) == null) {
+            if (plan.isIndexBacked()) {
+                Log.d(Const.TAG, "Query plan: " + plan);
+            } else {
+                Log.w(Const.TAG, "Query not backed by index: " + plan);
+            }
+        }
+    }
+
+    /**
+     * @return report of all queries analyzed so far
+     */
+    public QueryPlanReport getReport() {
+        List<QueryPlan> planList = new ArrayList<>(plans.values());
+        Set<String> usedIndexes = new HashSet<>();
+        for (QueryPlan plan : planList) {
+            usedIndexes.addAll(plan.getUsedIndexes());
+        }
+
+        Map<String, List<String>> unusedIndexes = new TreeMap<>();
+        for (Map.Entry<String, List<String>> entry : tableIndexes.entrySet()) {
+            List<String> unused = new ArrayList<>();
+            for (String index : entry.getValue()) {
+                if (!usedIndexes.contains(index)) {
+                    unused.add(index);
+                }
+            }
+            if (!unused.isEmpty()) {
+                unusedIndexes.put(entry.getKey(), unused);
+            }
+        }
+        return new QueryPlanReport(planList, unusedIndexes);
+    }
+
+    /**
+     * Forgets all analyzed queries, e.g. after indexes were changed.
+     */
+    public void reset() {
+        plans.clear();
+        tableIndexes.clear();
+    }
+
+    /**
+     * SCAN without USING is a full table scan (older SQLite versions print SCAN TABLE).
+     * Scans of subqueries and constant rows are not table scans.
+     */
+    private static boolean isFullScan(String detail) {
+        return detail.startsWith("SCAN ") && !detail.contains(" USING ")
+                && !detail.contains("SUBQUERY") && !detail.contains("CONSTANT ROW") && !detail.startsWith("SCAN (");
+    }
+
+    /**
+     * Indexes created automatically for UNIQUE and PRIMARY KEY constraints are left out, they
+     * cannot be dropped anyway.
+     */
+    private static List<String> queryIndexes(BackendConnection connection, String tableName) {
+        Set<String> indexes = new LinkedHashSet<>();
+        try (BackendCursor cursor = connection.query(String.format("pragma index_list(%s);", tableName))) {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameIndex);
+                if (!name.startsWith(AUTO_INDEX_PREFIX)) {
+                    indexes.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(indexes);
+    }
+}
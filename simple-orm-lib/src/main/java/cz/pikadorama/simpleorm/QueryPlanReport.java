@@ -0,0 +1,98 @@
+package cz.pikadorama.simpleorm;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the query plans collected by {@link QueryPlanAnalyzer}.
+ */
+public final class QueryPlanReport {
+
+    private final List<QueryPlan> plans;
+    private final Map<String, List<String>> unusedIndexes;
+
+    QueryPlanReport(List<QueryPlan> plans, Map<String, List<String>> unusedIndexes) {
+        this.plans = Collections.unmodifiableList(plans);
+        this.unusedIndexes = Collections.unmodifiableMap(unusedIndexes);
+    }
+
+    /**
+     * @return all analyzed query plans
+     */
+    public List<QueryPlan> getPlans() {
+        return plans;
+    }
+
+    /**
+     * @return query plans scanning a table without an index
+     */
+    public List<QueryPlan> getFullScans() {
+        List<QueryPlan> result = new ArrayList<>();
+        for (QueryPlan plan : plans) {
+            if (plan.isFullScan()) {
+                result.add(plan);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return query plans building a temporary B-tree
+     */
+    public List<QueryPlan> getTempBTrees() {
+        List<QueryPlan> result = new ArrayList<>();
+        for (QueryPlan plan : plans) {
+            if (plan.usesTempBTree()) {
+                result.add(plan);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return indexes of the analyzed tables not used by any analyzed query, by table name
+     */
+    public Map<String, List<String>> getUnusedIndexes() {
+        return unusedIndexes;
+    }
+
+    /**
+     * Returns the report as JSON, e.g. to be stored by a test run and checked by a script.
+     *
+     * @return JSON representation of the report
+     */
+    public String toJson() {
+        try {
+            JSONArray plansJson = new JSONArray();
+            for (QueryPlan plan : plans) {
+                JSONObject planJson = new JSONObject();
+                planJson.put("sql", plan.getSql());
+                planJson.put("entity", plan.getEntityClassName());
+                planJson.put("table", plan.getTableName());
+                planJson.put("fullScan", plan.isFullScan());
+                planJson.put("tempBTree", plan.usesTempBTree());
+                planJson.put("usedIndexes", new JSONArray(plan.getUsedIndexes()));
+                planJson.put("details", new JSONArray(plan.getDetails()));
+                plansJson.put(planJson);
+            }
+
+            JSONObject unusedIndexesJson = new JSONObject();
+            for (Map.Entry<String, List<String>> entry : unusedIndexes.entrySet()) {
+                unusedIndexesJson.put(entry.getKey(), new JSONArray(entry.getValue()));
+            }
+
+            JSONObject json = new JSONObject();
+            json.put("plans", plansJson);
+            json.put("unusedIndexes", unusedIndexesJson);
+            return json.toString(2);
+        } catch (JSONException e) {
+            throw new IllegalStateException("Unable to serialize query plan report.", e);
+        }
+    }
+}
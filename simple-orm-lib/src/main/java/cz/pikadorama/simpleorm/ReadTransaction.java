@@ -0,0 +1,19 @@
+package cz.pikadorama.simpleorm;
+
+/**
+ * Block of database reads executed on a single consistent snapshot, see
+ * {@link DbManager#readTransaction(ReadTransaction)}.
+ *
+ * @param <R> type of the result
+ */
+public interface ReadTransaction<R> {
+
+    /**
+     * Runs the reads. All DAO calls made from this method on the calling thread see the same
+     * state of the database.
+     *
+     * @return result of the transaction
+     */
+    R execute();
+
+}
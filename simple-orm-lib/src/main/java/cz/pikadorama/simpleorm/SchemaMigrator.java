@@ -0,0 +1,453 @@
+package cz.pikadorama.simpleorm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.pikadorama.simpleorm.annotation.DbColumn;
+import cz.pikadorama.simpleorm.annotation.DbTable;
+import cz.pikadorama.simpleorm.util.Const;
+import cz.pikadorama.simpleorm.util.Strings;
+
+/**
+ * Declarative schema migration driven by {@link DbColumn} annotations. Every registered entity
+ * table is compared with its current structure in the database:
+ * <ul>
+ * <li>missing tables are created,</li>
+ * <li>new columns that SQLite can add in place are added by {@code ALTER TABLE ADD COLUMN}
+ * right away,</li>
+ * <li>removed columns and new columns with constraints that cannot be added in place require
+ * the table to be rebuilt. The rebuild copies the rows into a new table in small batches on a
+ * background thread, triggers keep both tables in sync meanwhile and the progress is
+ * checkpointed in the {@value #MIGRATIONS_TABLE} table so an interrupted rebuild resumes on
+ * the next start.</li>
+ * </ul>
+ * The original table stays fully usable until the rebuilt one replaces it in a single
+ * transaction. A row which violates the new constraints aborts the rebuild: the triggers, the
+ * rebuilt table and the checkpoint are dropped, the original table is kept (with the columns
+ * added to it in place, without their constraints) and the error is reported by
+ * {@link #getErrors()}. New NOT NULL columns must declare a default value.
+ */
+final class SchemaMigrator {
+
+    static final String MIGRATIONS_TABLE = "simple_orm_migrations";
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    static final String REBUILD_TABLE_SUFFIX = "_simple_orm_rebuild";
+    private static final String COLUMN_TABLE_NAME = "table_name";
+    private static final String COLUMN_LAST_ID = "last_id";
+    private static final String COLUMN_COLUMNS = "columns";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final Pattern DEFAULT_CLAUSE = Pattern.compile(
+            "\\bdefault\\s+('(?:[^']|'')*'|\\([^)]*\\)|[^\\s,]+)", Pattern.CASE_INSENSITIVE);
+
+    private final SQLiteDatabase db;
+    private final int batchSize;
+    private final AtomicInteger pendingRebuilds = new AtomicInteger();
+    private final Map<String, RuntimeException> errors = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "simple-orm-migration");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    SchemaMigrator(SQLiteDatabase db, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Migration batch size must be > 0.");
+        }
+        this.db = db;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Brings the tables of the given entities up to date. Cheap changes are applied before this
+     * method returns, table rebuilds are only scheduled.
+     *
+     * @param entityClasses entity classes annotated with {@link DbTable}
+     */
+    void migrate(Class<?>... entityClasses) {
+        db.execSQL(String.format("create table if not exists %s (%s text primary key, %s integer not null, %s text not null);",
+                MIGRATIONS_TABLE, COLUMN_TABLE_NAME, COLUMN_LAST_ID, COLUMN_COLUMNS));
+
+        for (Class<?> clazz : entityClasses) {
+            Rebuild rebuild = migrateTable(clazz);
+            if (rebuild != null) {
+                pendingRebuilds.incrementAndGet();
+                executor.execute(rebuild);
+            }
+        }
+    }
+
+    /**
+     * @return true if there is a table rebuild still running or waiting in the background
+     */
+    boolean isMigrating() {
+        return pendingRebuilds.get() > 0;
+    }
+
+    /**
+     * Blocks until all scheduled table rebuilds finish or the timeout elapses.
+     *
+     * @return true if all rebuilds finished, false on timeout
+     */
+    boolean awaitMigrations(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (pendingRebuilds) {
+            while (pendingRebuilds.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(pendingRebuilds, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return errors of the failed rebuilds by table name, empty if there was none
+     */
+    Map<String, RuntimeException> getErrors() {
+        return Collections.unmodifiableMap(new HashMap<>(errors));
+    }
+
+    /**
+     * Stops the rebuilds and waits until the batch in progress finishes. Stopped rebuilds are
+     * resumed from their checkpoint on the next start.
+     */
+    void shutdown() {
+        stopped = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Log.w(Const.TAG, "Table rebuild did not stop in " + SHUTDOWN_TIMEOUT_SECONDS + " s.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Rebuild migrateTable(Class<?> clazz) {
+        String tableName = clazz.getAnnotation(DbTable.class).name();
+        List<DbColumn> columns = EntitySchema.getDbColumns(clazz);
+        List<String> columnNames = EntitySchema.getColumnNames(clazz);
+        String joinedColumnNames = Strings.join(columnNames);
+
+        try {
+            db.beginTransaction();
+
+            boolean rebuildNeeded = false;
+            String checkpointedColumns = getCheckpointedColumns(tableName);
+            if (checkpointedColumns != null && !checkpointedColumns.equals(joinedColumnNames)) {
+                // entity definition changed again during an unfinished rebuild, start over
+                Log.i(Const.TAG, "Restarting interrupted rebuild of table " + tableName);
+                dropRebuildArtifacts(tableName);
+                checkpointedColumns = null;
+                rebuildNeeded = true;
+            }
+
+            Set<String> existingColumns = getExistingColumns(tableName);
+            if (existingColumns.isEmpty()) {
+                dropRebuildArtifacts(tableName);
+                db.execSQL(EntitySchema.composeCreateTableSql(tableName, clazz));
+                db.setTransactionSuccessful();
+                return null;
+            }
+
+            for (DbColumn column : columns) {
+                if (existingColumns.contains(column.name())) {
+                    continue;
+                }
+                String defaultClause = getDefaultClause(column);
+                if (defaultClause == null && column.properties().toLowerCase(Locale.US).contains("not null")) {
+                    throw new IllegalArgumentException(String.format(
+                            "New NOT NULL column %s of table %s must have a default value.", column.name(), tableName));
+                }
+                if (canAddInPlace(column)) {
+                    db.execSQL(String.format("alter table %s add column %s %s %s;",
+                            tableName, column.name(), column.type(), column.properties()));
+                } else {
+                    // add a plain column so the table is usable right away, constraints come with the rebuild
+                    db.execSQL(String.format("alter table %s add column %s %s %s;",
+                            tableName, column.name(), column.type(), defaultClause == null ? "" : defaultClause));
+                    rebuildNeeded = true;
+                }
+            }
+            if (!columnNames.containsAll(existingColumns)) {
+                rebuildNeeded = true;
+            }
+
+            Rebuild rebuild = null;
+            if (checkpointedColumns != null) {
+                Log.i(Const.TAG, "Resuming rebuild of table " + tableName);
+                rebuild = new Rebuild(tableName, columnNames);
+            } else if (rebuildNeeded) {
+                Log.i(Const.TAG, "Scheduling rebuild of table " + tableName);
+                startRebuild(tableName, clazz, columnNames);
+                rebuild = new Rebuild(tableName, columnNames);
+            }
+
+            db.setTransactionSuccessful();
+            return rebuild;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void startRebuild(String tableName, Class<?> clazz, List<String> columnNames) {
+        String rebuildTable = tableName + REBUILD_TABLE_SUFFIX;
+        db.execSQL(EntitySchema.composeCreateTableSql(rebuildTable, clazz));
+
+        String columns = Strings.join(columnNames);
+        String newValues = Strings.join(prefixed("new.", columnNames));
+        db.execSQL(String.format("create trigger %s after insert on %s begin insert or replace into %s (%s) values (%s); end;",
+                triggerName(tableName, "ai"), tableName, rebuildTable, columns, newValues));
+        db.execSQL(String.format("create trigger %s after update on %s begin delete from %s where %s = old.%s; insert or replace into %s (%s) values (%s); end;",
+                triggerName(tableName, "au"), tableName, rebuildTable, BaseColumns._ID, BaseColumns._ID, rebuildTable, columns, newValues));
+        db.execSQL(String.format("create trigger %s after delete on %s begin delete from %s where %s = old.%s; end;",
+                triggerName(tableName, "ad"), tableName, rebuildTable, BaseColumns._ID, BaseColumns._ID));
+
+        SQLiteStatement statement = db.compileStatement(String.format("insert into %s (%s, %s, %s) values (?, ?, ?);",
+                MIGRATIONS_TABLE, COLUMN_TABLE_NAME, COLUMN_LAST_ID, COLUMN_COLUMNS));
+        try {
+            statement.bindString(1, tableName);
+            statement.bindLong(2, Long.MIN_VALUE);
+            statement.bindString(3, columns);
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void dropRebuildArtifacts(String tableName) {
+        db.execSQL(String.format("drop trigger if exists %s;", triggerName(tableName, "ai")));
+        db.execSQL(String.format("drop trigger if exists %s;", triggerName(tableName, "au")));
+        db.execSQL(String.format("drop trigger if exists %s;", triggerName(tableName, "ad")));
+        db.execSQL(String.format("drop table if exists %s;", tableName + REBUILD_TABLE_SUFFIX));
+        db.delete(MIGRATIONS_TABLE, COLUMN_TABLE_NAME + " = ?", new String[]{tableName});
+    }
+
+    private String getCheckpointedColumns(String tableName) {
+        try (Cursor cursor = db.query(MIGRATIONS_TABLE, new String[]{COLUMN_COLUMNS},
+                COLUMN_TABLE_NAME + " = ?", new String[]{tableName}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    private Set<String> getExistingColumns(String tableName) {
+        Set<String> columns = new HashSet<>();
+        try (Cursor cursor = db.rawQuery(String.format("pragma table_info(%s);", tableName), null)) {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * SQLite refuses to add PRIMARY KEY and UNIQUE columns and NOT NULL columns without a
+     * default value to an existing table.
+     */
+    private static boolean canAddInPlace(DbColumn column) {
+        String properties = column.properties().toLowerCase(Locale.US);
+        if (properties.contains("primary key") || properties.contains("unique")) {
+            return false;
+        }
+        return !properties.contains("not null") || properties.contains("default");
+    }
+
+    /**
+     * @return the {@code DEFAULT} clause of the column properties or null if there is none
+     */
+    private static String getDefaultClause(DbColumn column) {
+        Matcher matcher = DEFAULT_CLAUSE.matcher(column.properties());
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    private static String triggerName(String tableName, String suffix) {
+        return tableName + REBUILD_TABLE_SUFFIX + "_" + suffix;
+    }
+
+    private static List<String> prefixed(String prefix, List<String> strings) {
+        List<String> result = new ArrayList<>();
+        for (String string : strings) {
+            result.add(prefix + string);
+        }
+        return result;
+    }
+
+    /**
+     * Copies rows of the original table into the rebuilt one batch by batch, each batch in its
+     * own short transaction, and swaps the tables at the end.
+     */
+    private final class Rebuild implements Runnable {
+
+        private final String tableName;
+        private final String rebuildTable;
+        private final String columns;
+
+        private Rebuild(String tableName, List<String> columnNames) {
+            this.tableName = tableName;
+            this.rebuildTable = tableName + REBUILD_TABLE_SUFFIX;
+            this.columns = Strings.join(columnNames);
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                while (!stopped && copyBatch()) {
+                    Thread.yield();
+                }
+                if (stopped) {
+                    Log.i(Const.TAG, "Rebuild of table " + tableName + " stopped, it will be resumed on the next start.");
+                    return;
+                }
+                swapTables();
+                Log.i(Const.TAG, String.format("Rebuild of table %s finished in %d ms.",
+                        tableName, System.currentTimeMillis() - start));
+            } catch (RuntimeException e) {
+                Log.e(Const.TAG, "Rebuild of table " + tableName + " failed, the original table is kept.", e);
+                abort();
+                errors.put(tableName, e);
+            } finally {
+                synchronized (pendingRebuilds) {
+                    pendingRebuilds.decrementAndGet();
+                    pendingRebuilds.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return true if some rows were copied, false if there is nothing left to copy
+         */
+        private boolean copyBatch() {
+            db.beginTransactionNonExclusive();
+            try {
+                long lastId = queryLong(String.format("select %s from %s where %s = ?;",
+                        COLUMN_LAST_ID, MIGRATIONS_TABLE, COLUMN_TABLE_NAME), tableName);
+
+                SQLiteStatement maxIdStatement = db.compileStatement(String.format(
+                        "select max(%s) from (select %s from %s where %s > ? order by %s limit ?);",
+                        BaseColumns._ID, BaseColumns._ID, tableName, BaseColumns._ID, BaseColumns._ID));
+                String batchEnd;
+                try {
+                    maxIdStatement.bindLong(1, lastId);
+                    maxIdStatement.bindLong(2, batchSize);
+                    batchEnd = maxIdStatement.simpleQueryForString();
+                } finally {
+                    maxIdStatement.close();
+                }
+                if (batchEnd == null) {
+                    db.setTransactionSuccessful();
+                    return false;
+                }
+                long newLastId = Long.parseLong(batchEnd);
+
+                // rows already copied by the triggers are newer, skip them; a plain insert makes
+                // a row violating the new constraints abort the rebuild instead of being dropped
+                SQLiteStatement copyStatement = db.compileStatement(String.format(
+                        "insert into %s (%s) select %s from %s where %s > ? and %s <= ? and %s not in (select %s from %s where %s > ? and %s <= ?);",
+                        rebuildTable, columns, columns, tableName, BaseColumns._ID, BaseColumns._ID,
+                        BaseColumns._ID, BaseColumns._ID, rebuildTable, BaseColumns._ID, BaseColumns._ID));
+                try {
+                    copyStatement.bindLong(1, lastId);
+                    copyStatement.bindLong(2, newLastId);
+                    copyStatement.bindLong(3, lastId);
+                    copyStatement.bindLong(4, newLastId);
+                    copyStatement.executeInsert();
+                } finally {
+                    copyStatement.close();
+                }
+
+                SQLiteStatement checkpointStatement = db.compileStatement(String.format(
+                        "update %s set %s = ? where %s = ?;", MIGRATIONS_TABLE, COLUMN_LAST_ID, COLUMN_TABLE_NAME));
+                try {
+                    checkpointStatement.bindLong(1, newLastId);
+                    checkpointStatement.bindString(2, tableName);
+                    checkpointStatement.executeUpdateDelete();
+                } finally {
+                    checkpointStatement.close();
+                }
+
+                db.setTransactionSuccessful();
+                return true;
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        private void swapTables() {
+            db.beginTransaction();
+            try {
+                long sourceRows = queryLong(String.format("select count(*) from %s;", tableName));
+                long rebuiltRows = queryLong(String.format("select count(*) from %s;", rebuildTable));
+                if (sourceRows != rebuiltRows) {
+                    throw new IllegalStateException(String.format("Rebuilt table %s has %d rows, original has %d.",
+                            tableName, rebuiltRows, sourceRows));
+                }
+                db.execSQL(String.format("drop trigger if exists %s;", triggerName(tableName, "ai")));
+                db.execSQL(String.format("drop trigger if exists %s;", triggerName(tableName, "au")));
+                db.execSQL(String.format("drop trigger if exists %s;", triggerName(tableName, "ad")));
+                db.execSQL(String.format("drop table %s;", tableName));
+                db.execSQL(String.format("alter table %s rename to %s;", rebuildTable, tableName));
+                db.delete(MIGRATIONS_TABLE, COLUMN_TABLE_NAME + " = ?", new String[]{tableName});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        /**
+         * Drops the triggers, the rebuilt table and the checkpoint, so writes to the original
+         * table are not copied any more and the rebuild is not resumed on the next start.
+         */
+        private void abort() {
+            try {
+                db.beginTransaction();
+                try {
+                    dropRebuildArtifacts(tableName);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (RuntimeException e) {
+                Log.e(Const.TAG, "Unable to drop the rebuild of table " + tableName, e);
+            }
+        }
+
+        private long queryLong(String sql, String... args) {
+            SQLiteStatement statement = db.compileStatement(sql);
+            try {
+                statement.bindAllArgsAsStrings(args);
+                return statement.simpleQueryForLong();
+            } finally {
+                statement.close();
+            }
+        }
+    }
+}
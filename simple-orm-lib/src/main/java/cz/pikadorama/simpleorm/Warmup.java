@@ -0,0 +1,209 @@
+package cz.pikadorama.simpleorm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cz.pikadorama.simpleorm.util.Const;
+
+/**
+ * Background warmup of a {@link Database}, started by {@link Database#warmUp(String...)}. It
+ * moves the costs of the first database access away from the first user interaction:
+ * <ol>
+ * <li>DAOs of all entities are created, which loads the mirrored tables into memory,</li>
+ * <li>their statements are compiled, which fills the prepared statement cache of the
+ * connection,</li>
+ * <li>pages of the selected tables and indexes are read into the page cache.</li>
+ * </ol>
+ * Use {@link #await(long, TimeUnit)} or {@link #addListener(Listener)} to learn when it is done
+ * and the getters for the time spent in each phase.
+ */
+public final class Warmup {
+
+    /**
+     * Callback called when the warmup finishes. It is called on the warmup thread, or on the
+     * calling thread if the warmup has already finished when the listener is added.
+     */
+    public interface Listener {
+
+        void onWarmupFinished(Warmup warmup);
+
+    }
+
+    private final Database database;
+    private final List<String> preloadNames;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Map<String, Long> preloadMillis = new LinkedHashMap<>();
+
+    private volatile long daoCreationMillis;
+    private volatile long statementCompilationMillis;
+    private volatile long totalMillis;
+    private volatile RuntimeException error = null;
+
+    Warmup(Database database, String... preloadNames) {
+        this.database = database;
+        this.preloadNames = Collections.unmodifiableList(Arrays.asList(preloadNames));
+    }
+
+    /**
+     * Runs the warmup on the calling thread.
+     */
+    void execute() {
+        long start = System.nanoTime();
+        try {
+            for (Class<?> entityClass : database.getEntityClasses()) {
+                database.getDao(entityClass);
+            }
+            long daosCreated = System.nanoTime();
+            daoCreationMillis = toMillis(daosCreated - start);
+
+            database.compileStatements();
+            statementCompilationMillis = toMillis(System.nanoTime() - daosCreated);
+
+            SQLiteDatabase db = database.getReadableDatabase();
+            for (String name : preloadNames) {
+                long preloadStart = System.nanoTime();
+                preload(db, name);
+                synchronized (this) {
+                    preloadMillis.put(name, toMillis(System.nanoTime() - preloadStart));
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(Const.TAG, "Database warmup failed.", e);
+            error = e;
+        } finally {
+            List<Listener> listenersToCall;
+            synchronized (this) {
+                totalMillis = toMillis(System.nanoTime() - start);
+                done.countDown();
+                listenersToCall = new ArrayList<>(listeners);
+                listeners.clear();
+            }
+            Log.i(Const.TAG, "Database warmup finished: " + this);
+            for (Listener listener : listenersToCall) {
+                listener.onWarmupFinished(this);
+            }
+        }
+    }
+
+    /**
+     * Adds listener to be notified when the warmup finishes.
+     *
+     * @param listener listener
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onWarmupFinished(this);
+    }
+
+    /**
+     * Blocks until the warmup finishes or the timeout elapses.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    time unit of the timeout
+     * @return true if the warmup finished, false if the timeout elapsed
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * @return true if the warmup finished (successfully or not)
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * @return error which stopped the warmup or null
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * @return time spent creating DAOs in milliseconds
+     */
+    public long getDaoCreationMillis() {
+        return daoCreationMillis;
+    }
+
+    /**
+     * @return time spent compiling statements in milliseconds
+     */
+    public long getStatementCompilationMillis() {
+        return statementCompilationMillis;
+    }
+
+    /**
+     * @return time spent reading each preloaded table or index in milliseconds, by its name
+     */
+    public synchronized Map<String, Long> getPreloadMillis() {
+        return new LinkedHashMap<>(preloadMillis);
+    }
+
+    /**
+     * @return total duration of the warmup in milliseconds
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("daos=%d ms, statements=%d ms, preload=%s ms, total=%d ms",
+                daoCreationMillis, statementCompilationMillis, preloadMillis, totalMillis);
+    }
+
+    /**
+     * Reads all pages of the table or index by counting its rows, an unknown name or an index
+     * SQLite refuses to use is only logged.
+     */
+    private static void preload(SQLiteDatabase db, String name) {
+        String type = null;
+        String tableName = null;
+        try (Cursor cursor = db.rawQuery("select type, tbl_name from sqlite_master where name = ?;", new String[]{name})) {
+            if (cursor.moveToFirst()) {
+                type = cursor.getString(0);
+                tableName = cursor.getString(1);
+            }
+        }
+
+        String sql;
+        if ("table".equals(type)) {
+            sql = String.format("select count(*) from %s not indexed;", name);
+        } else if ("index".equals(type)) {
+            sql = String.format("select count(*) from %s indexed by %s;", tableName, name);
+        } else {
+            Log.w(Const.TAG, "Nothing to preload, there is no table or index named " + name);
+            return;
+        }
+
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            cursor.moveToFirst();
+        } catch (SQLiteException e) {
+            Log.w(Const.TAG, "Unable to preload " + name, e);
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
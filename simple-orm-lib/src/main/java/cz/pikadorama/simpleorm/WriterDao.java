@@ -0,0 +1,137 @@
+package cz.pikadorama.simpleorm;
+
+import java.util.List;
+
+import cz.pikadorama.simpleorm.dao.Dao;
+import cz.pikadorama.simpleorm.dao.RowVisitor;
+
+/**
+ * {@link Dao} returned by {@link Database#getDao(Class)}. Writes run on the writer thread of
+ * the database and the calling thread waits for them, see
+ * {@link Database#executeWrite(WriteTransaction)}. Reads run on the calling thread.
+ */
+final class WriterDao<T> implements Dao<T> {
+
+    private final Database database;
+    private final Dao<T> delegate;
+
+    WriterDao(Database database, Dao<T> delegate) {
+        this.database = database;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public T getById(long id) {
+        return delegate.getById(id);
+    }
+
+    @Override
+    public List<T> getByIds(long[] ids) {
+        return delegate.getByIds(ids);
+    }
+
+    @Override
+    public T getById(long id, String[] columns) {
+        return delegate.getById(id, columns);
+    }
+
+    @Override
+    public List<T> getByIds(long[] ids, String[] columns) {
+        return delegate.getByIds(ids, columns);
+    }
+
+    @Override
+    public long create(final T obj) {
+        return database.executeWrite(new WriteTransaction<Long>() {
+            @Override
+            public Long execute() {
+                return delegate.create(obj);
+            }
+        });
+    }
+
+    @Override
+    public void createAll(final List<T> objects) {
+        database.executeWrite(new WriteTransaction<Void>() {
+            @Override
+            public Void execute() {
+                delegate.createAll(objects);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void update(final T obj) {
+        database.executeWrite(new WriteTransaction<Void>() {
+            @Override
+            public Void execute() {
+                delegate.update(obj);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void delete(final T obj) {
+        database.executeWrite(new WriteTransaction<Void>() {
+            @Override
+            public Void execute() {
+                delegate.delete(obj);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void delete(final long id) {
+        database.executeWrite(new WriteTransaction<Void>() {
+            @Override
+            public Void execute() {
+                delegate.delete(id);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void deleteAll() {
+        database.executeWrite(new WriteTransaction<Void>() {
+            @Override
+            public Void execute() {
+                delegate.deleteAll();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<T> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<T> findAll(String[] columns) {
+        return delegate.findAll(columns);
+    }
+
+    @Override
+    public void loadLazyColumns(List<T> objects, String... columns) {
+        delegate.loadLazyColumns(objects, columns);
+    }
+
+    @Override
+    public List<T> query(String query, String[] columnNames) {
+        return delegate.query(query, columnNames);
+    }
+
+    @Override
+    public int scanAll(T target, RowVisitor<T> visitor) {
+        return delegate.scanAll(target, visitor);
+    }
+
+    @Override
+    public int scan(String query, String[] selectionArgs, T target, RowVisitor<T> visitor) {
+        return delegate.scan(query, selectionArgs, target, visitor);
+    }
+}
@@ -0,0 +1,86 @@
+package cz.pikadorama.simpleorm.backend;
+
+import android.database.Cursor;
+
+/**
+ * {@link BackendCursor} over Android {@link Cursor}.
+ */
+public final class AndroidBackendCursor implements BackendCursor {
+
+    private final Cursor cursor;
+
+    public AndroidBackendCursor(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return the wrapped cursor
+     */
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return cursor.moveToNext();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return cursor.getColumnCount();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        return cursor.getColumnIndex(columnName);
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return cursor.getColumnName(columnIndex);
+    }
+
+    /**
+     * The {@code Cursor.FIELD_TYPE_} constants have the same values as the {@code TYPE_}
+     * constants.
+     */
+    @Override
+    public int getType(int columnIndex) {
+        return cursor.getType(columnIndex);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return cursor.isNull(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return cursor.getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return cursor.getInt(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return cursor.getDouble(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return cursor.getString(columnIndex);
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return cursor.getBlob(columnIndex);
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+}
@@ -0,0 +1,216 @@
+package cz.pikadorama.simpleorm.backend;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * {@link StorageBackend} over {@link SQLiteOpenHelper}. {@link SQLiteDatabase} pools its
+ * connections and serializes writers by itself, so acquiring and releasing connections is
+ * free. There is no batch API, batched statements are executed right away.
+ *
+ * Transactions of {@link SQLiteDatabase} belong to the calling thread, so do the tasks of
+ * {@link BackendConnection#runAfterCommit(Runnable)}. A task registered inside a transaction
+ * begun directly on {@link SQLiteDatabase} waits until that transaction ends as well. Its
+ * outcome is not known to the backend, so the task runs unless a level begun through this
+ * backend failed, on the first acquisition of a connection by the thread after the end.
+ */
+public final class AndroidStorageBackend implements StorageBackend {
+
+    private final SQLiteOpenHelper helper;
+    private final ThreadLocal<ThreadTransaction> transactions = new ThreadLocal<ThreadTransaction>() {
+        @Override
+        protected ThreadTransaction initialValue() {
+            return new ThreadTransaction();
+        }
+    };
+
+    public AndroidStorageBackend(SQLiteOpenHelper helper) {
+        this.helper = helper;
+    }
+
+    public SQLiteOpenHelper getHelper() {
+        return helper;
+    }
+
+    @Override
+    public BackendConnection acquireConnection(boolean write) {
+        SQLiteDatabase db = write ? helper.getWritableDatabase() : helper.getReadableDatabase();
+        ThreadTransaction transaction = transactions.get();
+        transaction.endOuterTransaction(db);
+        return new AndroidConnection(db, transaction);
+    }
+
+    /**
+     * Returns connection over the given database instead of the helper's one, e.g. over a
+     * read-only handle of the same file. Release it by {@link #releaseConnection(BackendConnection)}.
+     *
+     * @param db database of the connection
+     * @return connection
+     */
+    public BackendConnection acquireConnection(SQLiteDatabase db) {
+        return new AndroidConnection(db, transactions.get());
+    }
+
+    @Override
+    public void releaseConnection(BackendConnection connection) {
+        // connections are pooled by SQLiteDatabase
+    }
+
+    @Override
+    public void close() {
+        helper.close();
+    }
+
+    private static final class AndroidConnection implements BackendConnection {
+
+        private final SQLiteDatabase db;
+        private final ThreadTransaction transaction;
+
+        private AndroidConnection(SQLiteDatabase db, ThreadTransaction transaction) {
+            this.db = db;
+            this.transaction = transaction;
+        }
+
+        @Override
+        public BackendCursor query(String sql, final Object... args) {
+            Cursor cursor = db.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+                @Override
+                public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+                    // bind by type, rawQuery would bind everything as strings
+                    for (int i = 0; i < args.length; i++) {
+                        DatabaseUtils.bindObjectToProgram(query, i + 1, args[i]);
+                    }
+                    return new SQLiteCursor(driver, editTable, query);
+                }
+            }, sql, null, null);
+            return new AndroidBackendCursor(cursor);
+        }
+
+        @Override
+        public BackendCursor queryLongArgs(String sql, long[] args, int offset, int length) {
+            return new AndroidBackendCursor(db.rawQueryWithFactory(new LongArgsCursorFactory(args, offset, length), sql, null, null));
+        }
+
+        @Override
+        public void execute(String sql, Object... args) {
+            db.execSQL(sql, args);
+        }
+
+        @Override
+        public BackendStatement compileStatement(String sql) {
+            return new AndroidStatement(db.compileStatement(sql));
+        }
+
+        @Override
+        public void runAfterCommit(Runnable task) {
+            transaction.joinOuterTransaction(db);
+            transaction.tracker.runAfterCommit(task);
+        }
+
+        @Override
+        public void beginTransaction() {
+            transaction.joinOuterTransaction(db);
+            db.beginTransaction();
+            transaction.tracker.begin();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            db.setTransactionSuccessful();
+            transaction.tracker.setSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            boolean outermost = transaction.tracker.end();
+            db.endTransaction();
+            if (outermost) {
+                transaction.tracker.completed(!transaction.tracker.isFailed());
+            }
+        }
+    }
+
+    /**
+     * Transaction of one thread. A transaction begun directly on {@link SQLiteDatabase} is
+     * tracked as an extra outermost level, so the tasks wait for its end.
+     */
+    private static final class ThreadTransaction {
+
+        private final TransactionTracker tracker = new TransactionTracker();
+        private boolean outerLevel = false;
+
+        private void joinOuterTransaction(SQLiteDatabase db) {
+            if (!tracker.isActive() && db.inTransaction()) {
+                tracker.begin();
+                outerLevel = true;
+            }
+        }
+
+        private void endOuterTransaction(SQLiteDatabase db) {
+            if (outerLevel && !db.inTransaction()) {
+                outerLevel = false;
+                tracker.setSuccessful();
+                tracker.end();
+                tracker.completed(!tracker.isFailed());
+            }
+        }
+    }
+
+    private static final class AndroidStatement implements BackendStatement {
+
+        private final SQLiteStatement statement;
+        private int batchedChanges = 0;
+
+        private AndroidStatement(SQLiteStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public void bind(int index, Object value) {
+            DatabaseUtils.bindObjectToProgram(statement, index, value);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            statement.bindLong(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            statement.clearBindings();
+        }
+
+        @Override
+        public long executeInsert() {
+            return statement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            return statement.executeUpdateDelete();
+        }
+
+        @Override
+        public void addBatch() {
+            batchedChanges += statement.executeUpdateDelete();
+        }
+
+        @Override
+        public int executeBatch() {
+            int changes = batchedChanges;
+            batchedChanges = 0;
+            return changes;
+        }
+
+        @Override
+        public void close() {
+            statement.close();
+        }
+    }
+}
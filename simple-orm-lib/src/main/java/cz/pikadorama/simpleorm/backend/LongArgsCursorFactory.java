@@ -0,0 +1,41 @@
+package cz.pikadorama.simpleorm.backend;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * Cursor factory which binds query arguments as 64-bit integers. {@link SQLiteDatabase#rawQuery(String, String[])}
+ * only accepts string arguments, so each ID would be converted to string and back by SQLite.
+ */
+final class LongArgsCursorFactory implements SQLiteDatabase.CursorFactory {
+
+    private final long[] args;
+    private final int offset;
+    private final int length;
+
+    LongArgsCursorFactory(long... args) {
+        this(args, 0, args.length);
+    }
+
+    /**
+     * @param args   array of arguments
+     * @param offset index of the first argument to bind
+     * @param length number of arguments to bind
+     */
+    LongArgsCursorFactory(long[] args, int offset, int length) {
+        this.args = args;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+        for (int i = 0; i < length; i++) {
+            query.bindLong(i + 1, args[offset + i]);
+        }
+        return new SQLiteCursor(driver, editTable, query);
+    }
+}
@@ -13,6 +13,13 @@ import cz.pikadorama.simpleorm.annotation.DbTable;
  */
 public interface DaoQueryHelper<T> {
 
+    /**
+     * Value returned by {@link #getId(Object)} when the object has no ID yet. SQLite accepts
+     * any other 64-bit value including negative ones as a row ID, the minimal value is never
+     * assigned to a new row.
+     */
+    long NO_ID = Long.MIN_VALUE;
+
     /**
      * Transform cursor data to object of type T.
      *
@@ -30,12 +37,12 @@ public interface DaoQueryHelper<T> {
     ContentValues objectToContentValues(T obj);
 
     /**
-     * Return object's ID. If the object is null or the ID is not set, return null.
+     * Return object's ID. If the object is null or the ID is not set, return {@link #NO_ID}.
      *
      * @param obj object
-     * @return ID or null
+     * @return ID or {@link #NO_ID}
      */
-    Integer getId(T obj);
+    long getId(T obj);
 
     /**
      * Helper method to set ID of newly created object. Callback.
@@ -43,6 +50,6 @@ public interface DaoQueryHelper<T> {
      * @param obj new object (no ID yet)
      * @param id  id to set (provided by database)
      */
-    void setId(T obj, Integer id);
+    void setId(T obj, long id);
 
 }
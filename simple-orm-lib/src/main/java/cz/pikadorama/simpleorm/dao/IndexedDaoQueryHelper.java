@@ -0,0 +1,45 @@
+package cz.pikadorama.simpleorm.dao;
+
+import android.database.Cursor;
+
+/**
+ * Optional extension of {@link DaoQueryHelper} for mapping without per-row overhead. Column
+ * indexes are resolved only once per cursor and rows are read into existing instances, so
+ * {@link Dao#scanAll(Object, RowVisitor)} can iterate any number of rows without creating
+ * garbage.
+ *
+ * The order of indexes in the array is up to the implementation, it only has to match between
+ * {@link #getColumnIndexes(Cursor)} and {@link #cursorToObject(Cursor, int[], Object)}. Cursors
+ * of projections ({@link Dao#findAll(String[])}) and lazy columns
+ * ({@link Dao#loadLazyColumns(java.util.List, String...)}) contain only some of the columns, so
+ * resolve the indexes by {@link Cursor#getColumnIndex(String)} and leave fields of the missing
+ * columns untouched.
+ */
+public interface IndexedDaoQueryHelper<T> extends DaoQueryHelper<T> {
+
+    /**
+     * Resolve indexes of the mapped columns in the given cursor. Called once per cursor.
+     *
+     * @param cursor cursor
+     * @return column indexes, -1 for columns missing in the cursor
+     */
+    int[] getColumnIndexes(Cursor cursor);
+
+    /**
+     * Create a new empty object to be filled by {@link #cursorToObject(Cursor, int[], Object)}.
+     *
+     * @return new object
+     */
+    T newObject();
+
+    /**
+     * Transform data of the current cursor row to the given object. All fields of the columns
+     * present in the cursor must be overwritten, the object may contain data of the previous row.
+     *
+     * @param cursor        cursor
+     * @param columnIndexes column indexes returned by {@link #getColumnIndexes(Cursor)} for this cursor
+     * @param target        object to fill
+     */
+    void cursorToObject(Cursor cursor, int[] columnIndexes, T target);
+
+}